@@ -1,9 +1,9 @@
 package models;
 
-import services.OrderService;
-import utils.DBHelper;
+import services.OrderEngine;
 
-import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import utils.Session;
@@ -78,56 +78,16 @@ public class Bill {
     }
 
     /**
-     * Store the order details in the database after payment.
+     * Store the order details in the database after payment
+     * (orders header + order_items, stock taken atomically by OrderEngine).
      */
     public boolean storeOrderInDatabase(int userId, Map<Integer, Integer> cartItems, Map<Integer, Medicine> medicineMap) {
-        // Calculate total amount
-        double totalAmount = cartItems.entrySet().stream()
-                .mapToDouble(entry -> medicineMap.get(entry.getKey()).getPrice() * entry.getValue())
-                .sum();
-
-        // Add order to database
-        String orderSql = "INSERT INTO orders (userId, total, orderDate) VALUES (?, ?, ?)";
-        String itemSql = "INSERT INTO order_items (order_id, medicine_id, quantity) VALUES (?, ?, ?)";
-        String stockSql = "UPDATE medicines SET quantity = quantity - ? WHERE serial_number = ?";
-
-        try (Connection conn = DBHelper.getConnection()) {
-            conn.setAutoCommit(false);
-
-            // Insert order into orders table
-            PreparedStatement orderStmt = conn.prepareStatement(orderSql, PreparedStatement.RETURN_GENERATED_KEYS);
-            orderStmt.setInt(1, userId);
-            orderStmt.setDouble(2, totalAmount);
-            orderStmt.setString(3, payment.getTimestamp());
-            orderStmt.executeUpdate();
-
-            // Get generated order ID
-            ResultSet rs = orderStmt.getGeneratedKeys();
-            rs.next();
-            int orderId = rs.getInt(1);
-
-            // Insert order items into order_items table
-            PreparedStatement itemStmt = conn.prepareStatement(itemSql);
-            for (Map.Entry<Integer, Integer> entry : cartItems.entrySet()) {
-                itemStmt.setInt(1, orderId);
-                itemStmt.setInt(2, entry.getKey());
-                itemStmt.setInt(3, entry.getValue());
-                itemStmt.executeUpdate();
-            }
-
-            // Update stock quantities in medicines table
-            PreparedStatement stockStmt = conn.prepareStatement(stockSql);
-            for (Map.Entry<Integer, Integer> entry : cartItems.entrySet()) {
-                stockStmt.setInt(1, entry.getValue());
-                stockStmt.setInt(2, entry.getKey());
-                stockStmt.executeUpdate();
-            }
-
-            conn.commit();
-            return true;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
+        List<OrderEngine.Line> lines = new ArrayList<>(cartItems.size());
+        for (Map.Entry<Integer, Integer> entry : cartItems.entrySet()) {
+            Medicine medicine = medicineMap.get(entry.getKey());
+            if (medicine == null) return false;
+            lines.add(new OrderEngine.Line(entry.getKey(), entry.getValue(), medicine.getPrice() * entry.getValue()));
         }
+        return OrderEngine.getInstance().place(userId, lines).isPlaced();
     }
 }
@@ -7,6 +7,7 @@ public class OrderItem {
     private ObjectProperty<Medicine> medicineProperty;  // Medicine property
     private IntegerProperty quantity;  // Quantity of the medicine
     private DoubleProperty totalPrice;  // Total price for this order item (quantity * price)
+    private long reservationId;  // stock_reservations.id holding this item's stock (0 = none)
 
     // Constructor
     public OrderItem(Medicine medicine, int quantity) {
@@ -70,6 +71,15 @@ public class OrderItem {
         updateTotalPrice();
     }
 
+    // Stock hold taken when the item went into the cart (0 = none)
+    public long getReservationId() {
+        return reservationId;
+    }
+
+    public void setReservationId(long reservationId) {
+        this.reservationId = reservationId;
+    }
+
     // Method to retrieve the medicineId, which is important for database operations
     public int getMedicineId() {
         Medicine medicine = getMedicine();
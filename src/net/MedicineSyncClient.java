@@ -1,36 +1,55 @@
-// src/net/MedicineSyncClient.java
 package net;
 
+import services.MedicineCatalog;
+import services.MedicineCatalog.Delta;
+import services.MedicineCatalog.Item;
 import utils.ConfigManager;
 import utils.FileLogger;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
+/**
+ * Keeps the local {@link MedicineCatalog} in step with a {@link MedicineSyncServer}.
+ * DELTA frames are applied as they arrive; only a sequence gap or a restarted
+ * server (new epoch) costs a RESYNC round trip.
+ */
 public class MedicineSyncClient {
     private Thread loop;
     private volatile boolean running;
 
-    public void start(Runnable onRefresh) {
+    // Survive reconnects so a short outage is caught up from the server's history
+    private long epoch;
+    private long lastSeq;
+    private boolean awaitingResync;
+
+    /** @param onChange called (on the sync thread) with each non-empty change applied to the catalog */
+    public void start(Consumer<Delta> onChange) {
         if (running) return;
         running = true;
-        loop = new Thread(() -> runLoop(onRefresh), "SyncClient-Loop");
+        loop = new Thread(() -> runLoop(onChange), "SyncClient-Loop");
         loop.setDaemon(true);
         loop.start();
     }
 
-    private void runLoop(Runnable onRefresh) {
+    private void runLoop(Consumer<Delta> onChange) {
         String host = ConfigManager.get("socket.host","127.0.0.1");
         int port = Integer.parseInt(ConfigManager.get("socket.port","5050"));
         while (running) {
             try (Socket s = new Socket(host, port);
-                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                 OutputStream out = s.getOutputStream()) {
+                s.setTcpNoDelay(true);
                 FileLogger.info("Connected to SyncServer " + host + ":" + port);
-                String line;
-                while (running && (line = in.readLine()) != null) {
-                    if ("REFRESH".equalsIgnoreCase(line.trim())) {
-                        onRefresh.run();
-                    }
+                SyncProtocol.Frame f;
+                while (running && (f = SyncProtocol.read(in)) != null) {
+                    Delta d = handle(f, out);
+                    if (d != null && !d.isEmpty()) onChange.accept(d);
                 }
             } catch (IOException e) {
                 FileLogger.warn("SyncClient reconnecting in 2s: " + e.getMessage());
@@ -39,5 +58,62 @@ public class MedicineSyncClient {
         }
     }
 
+    private Delta handle(SyncProtocol.Frame f, OutputStream out) throws IOException {
+        DataInputStream body = f.body();
+        MedicineCatalog catalog = MedicineCatalog.getInstance();
+        switch (f.type()) {
+            case SyncProtocol.HELLO -> {
+                long serverEpoch = body.readLong();
+                long serverSeq = body.readLong();
+                if (serverEpoch != epoch) {
+                    requestResync(out);   // old epoch -> server answers with FULL
+                    epoch = serverEpoch;
+                    lastSeq = 0;
+                } else if (serverSeq != lastSeq) {
+                    requestResync(out);
+                }
+                return null;
+            }
+            case SyncProtocol.DELTA -> {
+                long seq = body.readLong();
+                long watermark = body.readLong();
+                if (seq <= lastSeq) return null;          // already have it (e.g. replay overlap)
+                if (seq != lastSeq + 1 || awaitingResync) {
+                    if (!awaitingResync) requestResync(out);
+                    if (seq != lastSeq + 1) return null;  // wait for the replay / FULL
+                }
+                List<Item> upserts = SyncProtocol.readItems(body);
+                List<Integer> deletes = SyncProtocol.readIds(body);
+                lastSeq = seq;
+                awaitingResync = false;
+                return catalog.apply(upserts, deletes, watermark);
+            }
+            case SyncProtocol.FULL -> {
+                long seq = body.readLong();
+                long watermark = body.readLong();
+                List<Item> items = SyncProtocol.readItems(body);
+                Set<Integer> gone = new HashSet<>();
+                for (Item it : catalog.snapshot().items()) gone.add(it.id());
+                for (Item it : items) gone.remove(it.id());
+                lastSeq = seq;
+                awaitingResync = false;
+                return catalog.apply(items, gone, watermark);
+            }
+            default -> {
+                FileLogger.warn("SyncClient ignoring unknown frame type " + f.type());
+                return null;
+            }
+        }
+    }
+
+    private void requestResync(OutputStream out) throws IOException {
+        awaitingResync = true;
+        ByteBuffer frame = SyncProtocol.resync(epoch, lastSeq);
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        out.write(bytes);
+        out.flush();
+    }
+
     public void stop() { running = false; }
 }
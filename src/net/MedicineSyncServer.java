@@ -1,80 +1,360 @@
-// src/net/MedicineSyncServer.java
 package net;
 
+import services.MedicineCatalog;
+import services.MedicineCatalog.Delta;
+import services.MedicineCatalog.Item;
+import services.MedicineCatalog.Snapshot;
 import utils.ConfigManager;
 import utils.FileLogger;
 
-import java.io.*;
-import java.net.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.sql.SQLException;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+/**
+ * Single-threaded, non-blocking sync server.
+ *
+ * One selector thread accepts clients and writes to them; nothing here
+ * blocks the caller. Each client has its own outbound queue, and a client
+ * whose backlog grows past socket.max.outbound.kb is dropped rather than
+ * allowed to hold memory for everyone else. Broadcasts requested within
+ * socket.coalesce.ms of each other go out as one frame.
+ *
+ * Frames carry only the rows that changed (see {@link SyncProtocol}). Recent
+ * DELTA frames are kept so a client that missed a few can catch up without a
+ * FULL transfer.
+ */
 public class MedicineSyncServer {
+
     private final int port;
+    private final long coalesceNanos;
+    private final int maxOutboundBytes;
+    private final int historyFrames;
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
     private volatile boolean running;
-    private ServerSocket server;
-    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
-    private Thread acceptThread;
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread loopThread;
+
+    // nanoTime of the first broadcast request not yet sent; 0 = nothing pending
+    private final AtomicLong pendingSince = new AtomicLong();
+
+    // Catalog changes not yet sent (guarded by itself); filled by the catalog listener
+    private final Map<Integer, Item> pendingUpserts = new LinkedHashMap<>();
+    private final Set<Integer> pendingDeletes = new LinkedHashSet<>();
+    private long pendingWatermark;
+    private final Consumer<Delta> catalogListener = this::collect;
+
+    // Delta frames are built off the selector thread (they may hit the DB) ...
+    private volatile Thread deltaThread;
+    private final ExecutorService deltaWorker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "SyncServer-Delta");
+        t.setDaemon(true);
+        deltaThread = t;
+        return t;
+    });
+    private long nextSeq; // deltaWorker only
+
+    // ... and handed to the selector thread through this queue
+    private final Queue<Posted> outbox = new ConcurrentLinkedQueue<>();
+
+    // Selector thread only
+    private final ArrayDeque<Posted> history = new ArrayDeque<>();
+    private long lastPostedSeq;
 
     public MedicineSyncServer() {
-        this.port = Integer.parseInt(ConfigManager.get("socket.port","5050"));
+        this.port = Integer.parseInt(ConfigManager.get("socket.port", "5050"));
+        this.coalesceNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.parseLong(ConfigManager.get("socket.coalesce.ms", "50")));
+        this.maxOutboundBytes = Integer.parseInt(ConfigManager.get("socket.max.outbound.kb", "256")) * 1024;
+        this.historyFrames = Integer.parseInt(ConfigManager.get("socket.history.frames", "256"));
     }
 
-    public void start() {
+    public synchronized void start() {
         if (running) return;
         try {
-            server = new ServerSocket(port);
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.configureBlocking(false);
+            server.bind(new InetSocketAddress(port));
+            server.register(selector, SelectionKey.OP_ACCEPT);
             running = true;
+            MedicineCatalog.getInstance().addListener(catalogListener);
             FileLogger.info("SyncServer started on port " + port);
-            acceptThread = new Thread(this::acceptLoop, "SyncServer-Accept");
-            acceptThread.setDaemon(true);
-            acceptThread.start();
+            loopThread = new Thread(this::loop, "SyncServer-Loop");
+            loopThread.setDaemon(true);
+            loopThread.start();
+            deltaWorker.execute(this::buildDelta); // make sure the catalog is loaded before clients ask for it
         } catch (IOException e) {
             FileLogger.error("SyncServer failed to start: " + e.getMessage(), e);
+            closeQuietly(server);
+            closeQuietly(selector);
         }
     }
 
-    private void acceptLoop() {
-        while (running) {
-            try {
-                Socket s = server.accept();
-                clients.add(s);
-                FileLogger.info("Client connected: " + s.getRemoteSocketAddress());
-                // Handle client in separate thread (reads nothing; just keep alive)
-                new Thread(() -> clientLoop(s), "SyncServer-Client").start();
-            } catch (IOException e) {
-                if (running) FileLogger.warn("Accept failed: " + e.getMessage());
+    /**
+     * Push pending catalog changes to every connected client. Cheap and
+     * non-blocking, safe to call from the FX thread; bursts are merged into
+     * one frame.
+     */
+    public void broadcastRefresh() {
+        if (!running) return;
+        if (pendingSince.compareAndSet(0, Math.max(1, System.nanoTime()))) {
+            selector.wakeup();
+        }
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        MedicineCatalog.getInstance().removeListener(catalogListener);
+        selector.wakeup();
+        try {
+            if (loopThread != null) loopThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        FileLogger.info("SyncServer stopped.");
+    }
+
+    /* =======================
+       Building deltas
+       ======================= */
+
+    // Catalog listener: remember what changed, whoever refreshed the catalog
+    private void collect(Delta d) {
+        synchronized (pendingUpserts) {
+            for (Item it : d.upserts()) {
+                pendingUpserts.put(it.id(), it);
+                pendingDeletes.remove(it.id());
+            }
+            for (Integer id : d.deletes()) {
+                pendingUpserts.remove(id);
+                pendingDeletes.add(id);
             }
+            pendingWatermark = Math.max(pendingWatermark, MedicineCatalog.getInstance().snapshot().watermark());
+        }
+        // Changes picked up by someone else's refresh still need to go out
+        if (Thread.currentThread() == deltaThread) return;
+        broadcastRefresh();
+    }
+
+    // deltaWorker: pull changes from the DB, then post whatever accumulated as one frame
+    private void buildDelta() {
+        try {
+            MedicineCatalog.getInstance().refresh(); // feeds collect()
+        } catch (SQLException e) {
+            FileLogger.warn("SyncServer could not refresh catalog: " + e.getMessage());
         }
+        ByteBuffer frame;
+        long seq;
+        synchronized (pendingUpserts) {
+            if (pendingUpserts.isEmpty() && pendingDeletes.isEmpty()) return;
+            seq = ++nextSeq;
+            frame = SyncProtocol.delta(seq, pendingWatermark, pendingUpserts.values(), pendingDeletes);
+            pendingUpserts.clear();
+            pendingDeletes.clear();
+        }
+        outbox.add(new Posted(seq, frame));
+        selector.wakeup();
     }
 
-    private void clientLoop(Socket s) {
-        try (s) {
-            // Keep connection until closed by client
-            new BufferedReader(new InputStreamReader(s.getInputStream())).readLine();
-        } catch (IOException ignored) {
+    /* =======================
+       Selector loop
+       ======================= */
+
+    private void loop() {
+        ByteBuffer scratch = ByteBuffer.allocate(512);
+        try {
+            while (running) {
+                selector.select(selectTimeoutMs());
+                if (!running) break;
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    try {
+                        if (key.isAcceptable()) accept();
+                        else {
+                            if (key.isReadable()) read(key, scratch);
+                            if (key.isValid() && key.isWritable()) flush(key);
+                        }
+                    } catch (IOException e) {
+                        drop(key, e.getMessage());
+                    }
+                }
+                requestDeltaIfDue();
+                drainOutbox();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) FileLogger.error("SyncServer loop failed: " + e.getMessage(), e);
         } finally {
-            clients.remove(s);
+            running = false;
+            for (SelectionKey key : selector.keys()) closeQuietly(key.channel());
+            closeQuietly(selector);
         }
     }
 
-    public void broadcastRefresh() {
-        List<Socket> toRemove = new ArrayList<>();
-        for (Socket s : clients) {
-            try {
-                var out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream()));
-                out.write("REFRESH\n");
-                out.flush();
-            } catch (IOException e) {
-                toRemove.add(s);
+    // Block until there is I/O, or until the pending broadcast's window closes
+    private long selectTimeoutMs() {
+        long since = pendingSince.get();
+        if (since == 0) return 0; // 0 = wait indefinitely
+        long left = coalesceNanos - (System.nanoTime() - since);
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(left));
+    }
+
+    private void requestDeltaIfDue() {
+        long since = pendingSince.get();
+        if (since == 0 || System.nanoTime() - since < coalesceNanos) return;
+        pendingSince.set(0); // requests arriving from here on start a new window
+        deltaWorker.execute(this::buildDelta);
+    }
+
+    private void drainOutbox() {
+        Posted p;
+        while ((p = outbox.poll()) != null) {
+            lastPostedSeq = p.seq;
+            history.addLast(p);
+            while (history.size() > historyFrames) history.removeFirst();
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid() && key.attachment() instanceof Client c) {
+                    enqueue(key, c, p.frame.duplicate());
+                }
             }
         }
-        clients.removeAll(toRemove);
     }
 
-    public void stop() {
-        running = false;
-        try { if (server != null) server.close(); } catch (IOException ignored) {}
-        FileLogger.info("SyncServer stopped.");
+    private void accept() throws IOException {
+        SocketChannel ch = server.accept();
+        if (ch == null) return;
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        Client c = new Client();
+        SelectionKey key = ch.register(selector, SelectionKey.OP_READ, c);
+        FileLogger.info("Client connected: " + ch.getRemoteAddress());
+        enqueue(key, c, SyncProtocol.hello(epoch, lastPostedSeq));
+    }
+
+    /* =======================
+       Inbound (RESYNC only)
+       ======================= */
+
+    private void read(SelectionKey key, ByteBuffer scratch) throws IOException {
+        Client c = (Client) key.attachment();
+        scratch.clear();
+        int n = ((SocketChannel) key.channel()).read(scratch);
+        if (n < 0) {
+            drop(key, null);
+            return;
+        }
+        scratch.flip();
+        while (scratch.hasRemaining()) {
+            if (!c.in.hasRemaining()) throw new IOException("oversized client frame");
+            int chunk = Math.min(scratch.remaining(), c.in.remaining());
+            c.in.put(scratch.slice(scratch.position(), chunk));
+            scratch.position(scratch.position() + chunk);
+            handleInbound(key, c);
+            if (!key.isValid()) return;
+        }
+    }
+
+    private void handleInbound(SelectionKey key, Client c) throws IOException {
+        c.in.flip();
+        while (c.in.remaining() >= Integer.BYTES) {
+            int len = c.in.getInt(c.in.position());
+            if (len < 2 || len > c.in.capacity() - Integer.BYTES) throw new IOException("bad frame length " + len);
+            if (c.in.remaining() < Integer.BYTES + len) break;
+            c.in.getInt();
+            byte[] body = new byte[len];
+            c.in.get(body);
+            SyncProtocol.Frame f = SyncProtocol.parse(body);
+            if (f.type() != SyncProtocol.RESYNC) throw new IOException("unexpected frame type " + f.type());
+            resync(key, c, f.body().readLong(), f.body().readLong());
+        }
+        c.in.compact();
+    }
+
+    // Replay the missed deltas if we still have them all, otherwise send everything
+    private void resync(SelectionKey key, Client c, long clientEpoch, long lastSeq) {
+        if (clientEpoch == epoch && lastSeq == lastPostedSeq) return;
+        if (clientEpoch == epoch && lastSeq < lastPostedSeq
+                && !history.isEmpty() && history.peekFirst().seq <= lastSeq + 1) {
+            for (Posted p : history) {
+                if (p.seq > lastSeq) enqueue(key, c, p.frame.duplicate());
+            }
+            return;
+        }
+        // Snapshot is always at least as new as lastPostedSeq: deltas are built from published snapshots
+        Snapshot snap = MedicineCatalog.getInstance().snapshot();
+        if (!snap.isLoaded()) return; // initial load is still running; it goes out as a DELTA
+        enqueue(key, c, SyncProtocol.full(lastPostedSeq, snap.watermark(), snap.items()));
+    }
+
+    /* =======================
+       Outbound queues
+       ======================= */
+
+    private void enqueue(SelectionKey key, Client c, ByteBuffer frame) {
+        // A single frame may exceed the limit (e.g. FULL); a growing backlog may not
+        if (!c.out.isEmpty() && c.queued + frame.remaining() > maxOutboundBytes) {
+            drop(key, "outbound backlog over " + maxOutboundBytes + " bytes");
+            return;
+        }
+        c.queued += frame.remaining();
+        c.out.add(frame);
+        try {
+            flush(key);
+        } catch (IOException e) {
+            drop(key, e.getMessage());
+        }
+    }
+
+    // Write as much as the socket takes now; wait for OP_WRITE for the rest
+    private void flush(SelectionKey key) throws IOException {
+        Client c = (Client) key.attachment();
+        SocketChannel ch = (SocketChannel) key.channel();
+        while (!c.out.isEmpty()) {
+            ByteBuffer head = c.out.peek();
+            c.queued -= ch.write(head);
+            if (head.hasRemaining()) break;
+            c.out.poll();
+        }
+        int ops = c.out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        if (key.interestOps() != ops) key.interestOps(ops);
+    }
+
+    private void drop(SelectionKey key, String reason) {
+        key.cancel();
+        try {
+            String who = String.valueOf(((SocketChannel) key.channel()).getRemoteAddress());
+            if (reason != null) FileLogger.warn("Dropping sync client " + who + ": " + reason);
+            else FileLogger.info("Client disconnected: " + who);
+        } catch (IOException ignored) {}
+        closeQuietly(key.channel());
+    }
+
+    private static void closeQuietly(AutoCloseable c) {
+        try { if (c != null) c.close(); } catch (Exception ignored) {}
+    }
+
+    private record Posted(long seq, ByteBuffer frame) {}
+
+    private static final class Client {
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        final ByteBuffer in = ByteBuffer.allocate(256); // clients only send small RESYNC frames
+        long queued;
     }
 }
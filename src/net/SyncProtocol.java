@@ -0,0 +1,170 @@
+package net;
+
+import services.MedicineCatalog.Item;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Wire format shared by {@link MedicineSyncServer} and {@link MedicineSyncClient}.
+ *
+ * Frame: [int length][byte version][byte type][payload], where length counts
+ * everything after itself. Payloads:
+ *   HELLO  (server -> client)  long epoch, long seq
+ *   RESYNC (client -> server)  long epoch, long lastSeq
+ *   DELTA  (server -> client)  long seq, long watermark, items, int n, n x int deletedId
+ *   FULL   (server -> client)  long seq, long watermark, items
+ * items = int n, then n rows. seq increases by one per DELTA within an epoch
+ * (one server run); a client that sees a gap or a new epoch sends RESYNC.
+ */
+final class SyncProtocol {
+
+    static final byte VERSION = 1;
+
+    static final byte HELLO = 1;
+    static final byte DELTA = 2;
+    static final byte FULL = 3;
+    static final byte RESYNC = 4;
+
+    /** Upper bound for any frame, so a corrupt length can't allocate gigabytes. */
+    static final int MAX_FRAME = 64 * 1024 * 1024;
+
+    private SyncProtocol() {}
+
+    /* =======================
+       Encoding
+       ======================= */
+
+    static ByteBuffer hello(long epoch, long seq) {
+        return frame(HELLO, out -> {
+            out.writeLong(epoch);
+            out.writeLong(seq);
+        });
+    }
+
+    static ByteBuffer resync(long epoch, long lastSeq) {
+        return frame(RESYNC, out -> {
+            out.writeLong(epoch);
+            out.writeLong(lastSeq);
+        });
+    }
+
+    static ByteBuffer delta(long seq, long watermark, Collection<Item> upserts, Collection<Integer> deletes) {
+        return frame(DELTA, out -> {
+            out.writeLong(seq);
+            out.writeLong(watermark);
+            writeItems(out, upserts);
+            out.writeInt(deletes.size());
+            for (int id : deletes) out.writeInt(id);
+        });
+    }
+
+    static ByteBuffer full(long seq, long watermark, Collection<Item> items) {
+        return frame(FULL, out -> {
+            out.writeLong(seq);
+            out.writeLong(watermark);
+            writeItems(out, items);
+        });
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static ByteBuffer frame(byte type, Body body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0); // length, patched below
+            out.writeByte(VERSION);
+            out.writeByte(type);
+            body.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory stream, can't happen
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+        buf.putInt(0, buf.remaining() - Integer.BYTES);
+        return buf.asReadOnlyBuffer();
+    }
+
+    private static void writeItems(DataOutputStream out, Collection<Item> items) throws IOException {
+        out.writeInt(items.size());
+        for (Item it : items) {
+            out.writeInt(it.id());
+            writeString(out, it.name());
+            writeString(out, it.category());
+            out.writeDouble(it.price());
+            out.writeInt(it.quantity());
+            writeString(out, it.expiry());
+            writeString(out, it.imagePath());
+            out.writeLong(it.lastUpdated());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    /* =======================
+       Decoding
+       ======================= */
+
+    /** One received frame; body is positioned after the type byte. */
+    record Frame(byte type, DataInputStream body) {}
+
+    /** Read one frame, or null on a clean end of stream. Rejects unknown versions. */
+    static Frame read(DataInputStream in) throws IOException {
+        int len;
+        try {
+            len = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] buf = readBody(in, len);
+        return parse(buf);
+    }
+
+    static Frame parse(byte[] buf) throws IOException {
+        if (buf.length < 2) throw new IOException("Truncated sync frame");
+        if (buf[0] != VERSION) throw new IOException("Unsupported sync protocol version " + buf[0]);
+        return new Frame(buf[1], new DataInputStream(new ByteArrayInputStream(buf, 2, buf.length - 2)));
+    }
+
+    private static byte[] readBody(DataInputStream in, int len) throws IOException {
+        if (len < 2 || len > MAX_FRAME) throw new IOException("Bad sync frame length " + len);
+        byte[] buf = new byte[len];
+        in.readFully(buf);
+        return buf;
+    }
+
+    static List<Item> readItems(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<Item> items = new ArrayList<>(Math.min(n, 4096));
+        for (int i = 0; i < n; i++) {
+            items.add(new Item(
+                    in.readInt(),
+                    readString(in),
+                    readString(in),
+                    in.readDouble(),
+                    in.readInt(),
+                    readString(in),
+                    readString(in),
+                    in.readLong()));
+        }
+        return items;
+    }
+
+    static List<Integer> readIds(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<Integer> ids = new ArrayList<>(Math.min(n, 4096));
+        for (int i = 0; i < n; i++) ids.add(in.readInt());
+        return ids;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,65 @@
+package services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size Bloom filter over strings: "no" is definite, "yes" means maybe.
+ * Sized for an expected count and false-positive rate; the k probe positions
+ * come from one 64-bit hash split in two (double hashing). Safe to add to and
+ * query from any thread.
+ */
+final class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int probes;
+
+    BloomFilter(int expected, double fpp) {
+        int n = Math.max(1, expected);
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (ln2 * ln2));
+        int wordCount = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, (m + 63) >>> 6));
+        this.words = new AtomicLongArray(wordCount);
+        this.bits = (long) wordCount << 6;
+        this.probes = Math.max(1, (int) Math.round((double) bits / n * ln2));
+    }
+
+    void add(String key) {
+        long h = hash(key);
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 1; i <= probes; i++) {
+            long bit = index(h1 + i * h2);
+            words.getAndAccumulate((int) (bit >>> 6), 1L << bit, (a, b) -> a | b);
+        }
+    }
+
+    boolean mightContain(String key) {
+        long h = hash(key);
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 1; i <= probes; i++) {
+            long bit = index(h1 + i * h2);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private long index(int combined) {
+        return (combined & 0x7fffffffL) % bits;
+    }
+
+    // FNV-1a over the UTF-8 bytes, then a murmur3 finalizer to spread the high half
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
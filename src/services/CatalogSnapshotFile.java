@@ -0,0 +1,223 @@
+package services;
+
+import services.MedicineCatalog.Item;
+import services.MedicineCatalog.Snapshot;
+import utils.FileLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Binary on-disk copy of the medicine catalog (data/medicines_snapshot.bin),
+ * used to serve the catalog when the DB is unavailable and to start fast.
+ *
+ * Layout (big-endian):
+ *   header   int magic "MMCS", short format, short reserved, long catalogVersion,
+ *            long watermark, long savedAt, int rows, int stringsLength, int crc32(body)
+ *   columns  int id[rows], double price[rows], int quantity[rows], long lastUpdated[rows],
+ *            int name[rows], int category[rows], int expiry[rows], int imagePath[rows]
+ *   strings  (int byteLength, UTF-8 bytes)*; string columns hold offsets into
+ *            this table, -1 for null. Equal strings (categories) are stored once.
+ *
+ * Reads load the whole (small) file into one heap buffer and pick values out of
+ * the column blocks. Nothing stays mapped, so the writer can replace the file
+ * afterwards (Windows refuses to replace a file that is still mapped).
+ * Writes go to a temp file that is moved over the old one, on a background
+ * thread, and only when the catalog version has moved.
+ */
+public final class CatalogSnapshotFile {
+
+    private static final Path FILE = Paths.get("data", "medicines_snapshot.bin");
+    private static final int MAGIC = 0x4D4D4353; // "MMCS"
+    private static final short FORMAT = 1;
+    private static final int HEADER_BYTES = 4 + 2 + 2 + 8 + 8 + 8 + 4 + 4 + 4;
+    private static final int ROW_BYTES = 4 + 8 + 4 + 8 + 4 * 4;
+
+    /** What a snapshot file holds. */
+    public record Loaded(long catalogVersion, long watermark, long savedAt, List<Item> items) {}
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "CatalogSnapshot-Writer");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private static final AtomicReference<Snapshot> PENDING = new AtomicReference<>();
+    private static long writtenVersion = -1; // writer thread only
+    private static volatile boolean persisting;
+
+    private CatalogSnapshotFile() {}
+
+    /** Keep the file in step with the catalog from now on (idempotent). */
+    public static synchronized void persistOnChange(MedicineCatalog catalog) {
+        if (persisting) return;
+        persisting = true;
+        catalog.addListener(d -> saveAsync(catalog.snapshot()));
+        if (catalog.snapshot().isLoaded()) saveAsync(catalog.snapshot());
+    }
+
+    /** Queue snap for writing; a newer snapshot queued before the write starts replaces it. */
+    public static void saveAsync(Snapshot snap) {
+        if (snap == null || !snap.isLoaded() || snap.isStale()) return;
+        if (PENDING.getAndSet(snap) == null) {
+            WRITER.execute(() -> {
+                Snapshot s = PENDING.getAndSet(null);
+                if (s == null || s.version() == writtenVersion) return;
+                try {
+                    write(s);
+                    writtenVersion = s.version();
+                } catch (IOException e) {
+                    FileLogger.warn("Catalog snapshot write failed: {}", e.getMessage());
+                }
+            });
+        }
+    }
+
+    /* =======================
+       Write
+       ======================= */
+
+    static void write(Snapshot snap) throws IOException {
+        List<Item> items = snap.items();
+        int n = items.size();
+
+        // String table, deduplicated
+        Map<String, Integer> offsets = new HashMap<>();
+        List<byte[]> table = new ArrayList<>();
+        int[] tableLen = {0};
+        int[][] refs = new int[4][n];
+        for (int i = 0; i < n; i++) {
+            Item it = items.get(i);
+            refs[0][i] = intern(it.name(), offsets, table, tableLen);
+            refs[1][i] = intern(it.category(), offsets, table, tableLen);
+            refs[2][i] = intern(it.expiry(), offsets, table, tableLen);
+            refs[3][i] = intern(it.imagePath(), offsets, table, tableLen);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + n * ROW_BYTES + tableLen[0]);
+        buf.position(HEADER_BYTES);
+        for (Item it : items) buf.putInt(it.id());
+        for (Item it : items) buf.putDouble(it.price());
+        for (Item it : items) buf.putInt(it.quantity());
+        for (Item it : items) buf.putLong(it.lastUpdated());
+        for (int[] col : refs) for (int ref : col) buf.putInt(ref);
+        for (byte[] s : table) {
+            buf.putInt(s.length);
+            buf.put(s);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), HEADER_BYTES, buf.capacity() - HEADER_BYTES);
+        buf.position(0);
+        buf.putInt(MAGIC).putShort(FORMAT).putShort((short) 0)
+           .putLong(snap.version()).putLong(snap.watermark()).putLong(System.currentTimeMillis() / 1000)
+           .putInt(n).putInt(tableLen[0]).putInt((int) crc.getValue());
+        buf.rewind();
+
+        Files.createDirectories(FILE.getParent());
+        Path tmp = FILE.resolveSibling(FILE.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        try {
+            Files.move(tmp, FILE, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, FILE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static int intern(String s, Map<String, Integer> offsets, List<byte[]> table, int[] len) {
+        if (s == null) return -1;
+        Integer at = offsets.get(s);
+        if (at != null) return at;
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int off = len[0];
+        offsets.put(s, off);
+        table.add(bytes);
+        len[0] += 4 + bytes.length;
+        return off;
+    }
+
+    /* =======================
+       Read
+       ======================= */
+
+    /** Load the last snapshot, or null if there is none or it is damaged. */
+    public static Loaded read() {
+        if (!Files.isRegularFile(FILE)) return null;
+        try (FileChannel ch = FileChannel.open(FILE, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES) return null;
+            if (size > Integer.MAX_VALUE) return null;
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) < 0) return null; // truncated underneath us
+            }
+            buf.flip();
+
+            if (buf.getInt(0) != MAGIC || buf.getShort(4) != FORMAT) return null;
+            long version = buf.getLong(8);
+            long watermark = buf.getLong(16);
+            long savedAt = buf.getLong(24);
+            int n = buf.getInt(32);
+            int stringsLen = buf.getInt(36);
+            int expectedCrc = buf.getInt(40);
+            if (n < 0 || stringsLen < 0 || HEADER_BYTES + (long) n * ROW_BYTES + stringsLen != size) return null;
+
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate().position(HEADER_BYTES));
+            if ((int) crc.getValue() != expectedCrc) return null;
+
+            int ids = HEADER_BYTES;
+            int prices = ids + 4 * n;
+            int qtys = prices + 8 * n;
+            int updated = qtys + 4 * n;
+            int names = updated + 8 * n;
+            int cats = names + 4 * n;
+            int exps = cats + 4 * n;
+            int imgs = exps + 4 * n;
+            int strings = imgs + 4 * n;
+
+            Map<Integer, String> decoded = new HashMap<>();
+            List<Item> items = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                items.add(new Item(
+                        buf.getInt(ids + 4 * i),
+                        string(buf, strings, buf.getInt(names + 4 * i), decoded),
+                        string(buf, strings, buf.getInt(cats + 4 * i), decoded),
+                        buf.getDouble(prices + 8 * i),
+                        buf.getInt(qtys + 4 * i),
+                        string(buf, strings, buf.getInt(exps + 4 * i), decoded),
+                        string(buf, strings, buf.getInt(imgs + 4 * i), decoded),
+                        buf.getLong(updated + 8 * i)));
+            }
+            return new Loaded(version, watermark, savedAt, items);
+        } catch (IOException | RuntimeException e) {
+            FileLogger.warn("Catalog snapshot unreadable: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static String string(ByteBuffer buf, int base, int ref, Map<Integer, String> decoded) {
+        if (ref < 0) return null;
+        String s = decoded.get(ref);
+        if (s == null) {
+            int len = buf.getInt(base + ref);
+            byte[] bytes = new byte[len];
+            buf.get(base + ref + 4, bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            decoded.put(ref, s);
+        }
+        return s;
+    }
+}
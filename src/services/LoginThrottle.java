@@ -0,0 +1,163 @@
+package services;
+
+import utils.ConfigManager;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rate limit for login attempts, consulted before any BCrypt work is queued.
+ *
+ * Each key (an account's email, plus one bucket for the whole terminal) has a
+ * token bucket: login.burst attempts at once, refilled at login.rate.per.min.
+ * On top of that, failures past login.free.failures block the key for
+ * login.backoff.base.ms, doubling per further failure up to login.backoff.max.ms;
+ * a successful login clears the key.
+ *
+ * Buckets live in a fixed number of stripes, each an access-ordered map under
+ * its own lock, so checks on different keys rarely contend. A stripe holds at
+ * most login.throttle.keys / stripes buckets (least recently used dropped
+ * first), and buckets idle for login.idle.min are dropped as the stripe is
+ * touched. A bucket is one small mutable object per key, updated in place.
+ */
+public final class LoginThrottle {
+
+    /** allowed, or the wait before the key may try again. */
+    public record Decision(boolean allowed, long retryAfterMs) {
+        static final Decision ALLOW = new Decision(true, 0);
+    }
+
+    private static final LoginThrottle INSTANCE = new LoginThrottle();
+
+    public static LoginThrottle getInstance() { return INSTANCE; }
+
+    private static final int STRIPES = 16;
+    private static final String TERMINAL_KEY = "\u0000terminal";
+
+    private static final class Bucket {
+        double tokens;
+        long refilledAt;
+        long lastSeen;
+        int failures;
+        long blockedUntil;
+    }
+
+    private static final class Stripe {
+        final LinkedHashMap<String, Bucket> buckets = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final double burst = Math.max(1, Double.parseDouble(ConfigManager.get("login.burst", "5")));
+    private final double perMs = Double.parseDouble(ConfigManager.get("login.rate.per.min", "5")) / 60_000.0;
+    private final double terminalBurst = Math.max(1, Double.parseDouble(ConfigManager.get("login.terminal.burst", "30")));
+    private final double terminalPerMs = Double.parseDouble(ConfigManager.get("login.terminal.per.min", "120")) / 60_000.0;
+    private final int freeFailures = Math.max(0, Integer.parseInt(ConfigManager.get("login.free.failures", "3")));
+    private final long backoffBaseMs = Math.max(1, Long.parseLong(ConfigManager.get("login.backoff.base.ms", "1000")));
+    private final long backoffMaxMs = Math.max(backoffBaseMs, Long.parseLong(ConfigManager.get("login.backoff.max.ms", "300000")));
+    private final int perStripe = Math.max(16, Integer.parseInt(ConfigManager.get("login.throttle.keys", "10000")) / STRIPES);
+    private final long idleMs = (long) (Double.parseDouble(ConfigManager.get("login.idle.min", "30")) * 60_000);
+
+    private LoginThrottle() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+    }
+
+    /* =======================
+       API
+       ======================= */
+
+    /** Take a token for this attempt; the terminal bucket is only charged if the account's allows it. */
+    public Decision tryAcquire(String email) {
+        long now = System.currentTimeMillis();
+        Decision d = acquire(normalize(email), burst, perMs, now);
+        if (!d.allowed()) return d;
+        return acquire(TERMINAL_KEY, terminalBurst, terminalPerMs, now);
+    }
+
+    /** Wrong password or unknown account: counts towards back-off. */
+    public void onFailure(String email) {
+        long now = System.currentTimeMillis();
+        String key = normalize(email);
+        Stripe s = stripeOf(key);
+        synchronized (s) {
+            Bucket b = bucket(s, key, burst, now);
+            b.failures++;
+            int over = b.failures - freeFailures;
+            if (over > 0) {
+                b.blockedUntil = now + Math.min(backoffMaxMs, backoffBaseMs << Math.min(over - 1, 30));
+            }
+        }
+    }
+
+    public void onSuccess(String email) {
+        String key = normalize(email);
+        Stripe s = stripeOf(key);
+        synchronized (s) {
+            Bucket b = s.buckets.get(key);
+            if (b != null) {
+                b.failures = 0;
+                b.blockedUntil = 0;
+            }
+        }
+    }
+
+    /* =======================
+       Internals
+       ======================= */
+
+    private Decision acquire(String key, double capacity, double ratePerMs, long now) {
+        Stripe s = stripeOf(key);
+        synchronized (s) {
+            Bucket b = bucket(s, key, capacity, now);
+            if (now < b.blockedUntil) return new Decision(false, b.blockedUntil - now);
+
+            b.tokens = Math.min(capacity, b.tokens + (now - b.refilledAt) * ratePerMs);
+            b.refilledAt = now;
+            if (b.tokens < 1) {
+                long wait = ratePerMs > 0 ? (long) Math.ceil((1 - b.tokens) / ratePerMs) : backoffMaxMs;
+                return new Decision(false, wait);
+            }
+            b.tokens -= 1;
+            return Decision.ALLOW;
+        }
+    }
+
+    // Caller holds the stripe lock
+    private Bucket bucket(Stripe s, String key, double capacity, long now) {
+        evictIdle(s, now);
+        Bucket b = s.buckets.get(key);
+        if (b == null) {
+            if (s.buckets.size() >= perStripe) {
+                Iterator<Bucket> it = s.buckets.values().iterator();
+                it.next();
+                it.remove(); // least recently used
+            }
+            b = new Bucket();
+            b.tokens = capacity;
+            b.refilledAt = now;
+            s.buckets.put(key, b);
+        }
+        b.lastSeen = now;
+        return b;
+    }
+
+    // Access order puts the longest-idle buckets first, so stop at the first live one
+    private void evictIdle(Stripe s, long now) {
+        for (Iterator<Map.Entry<String, Bucket>> it = s.buckets.entrySet().iterator(); it.hasNext(); ) {
+            Bucket b = it.next().getValue();
+            if (now - b.lastSeen < idleMs || now < b.blockedUntil) break;
+            it.remove();
+        }
+    }
+
+    private Stripe stripeOf(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static String normalize(String email) {
+        return email == null ? "" : email.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,291 @@
+package services;
+
+import models.Medicine;
+import utils.DBHelper;
+import utils.FileLogger;
+import utils.FileLogger.Level;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Process-wide, in-memory medicine catalog keyed by serial_number.
+ *
+ * The first refresh loads the whole table; later refreshes only read rows with
+ * last_updated (and tombstones with deleted_at) at or after the last seen
+ * watermark, so their cost follows the number of changed rows.
+ * Readers get immutable, versioned {@link Snapshot}s and never block.
+ * At startup it can be {@link #seed seeded} from the saved snapshot file and
+ * serve those rows (marked stale) until the first refresh confirms them.
+ */
+public final class MedicineCatalog {
+
+    private static final MedicineCatalog INSTANCE = new MedicineCatalog();
+
+    public static MedicineCatalog getInstance() { return INSTANCE; }
+
+    // Re-read a couple of seconds back: last_updated has 1 s resolution and
+    // a slow transaction may commit a timestamp slightly older than "now".
+    private static final long OVERLAP_SECS = 2;
+
+    private static final String COLS =
+            "serial_number, name, category, price, quantity, expiry, image_path, last_updated";
+
+    private volatile Snapshot current = Snapshot.EMPTY;
+    private final Object refreshLock = new Object();
+    private final List<Consumer<Delta>> listeners = new CopyOnWriteArrayList<>();
+
+    private MedicineCatalog() {}
+
+    /** Latest published snapshot (may be empty before the first refresh). */
+    public Snapshot snapshot() { return current; }
+
+    /**
+     * Called with every non-empty delta, in publish order, whoever triggered it.
+     * Runs under the refresh lock, so listeners must be quick and must not refresh.
+     */
+    public void addListener(Consumer<Delta> listener) { listeners.add(listener); }
+
+    public void removeListener(Consumer<Delta> listener) { listeners.remove(listener); }
+
+    /**
+     * Start from a snapshot saved by an earlier run, before the DB has been read.
+     * The result is marked stale; the next refresh is a delta from its watermark
+     * and clears the mark. Does nothing once the catalog is loaded.
+     * @return true if the saved rows are now being served
+     */
+    public boolean seed(CatalogSnapshotFile.Loaded saved) {
+        if (saved == null || saved.watermark() < 0) return false;
+        synchronized (refreshLock) {
+            if (current.isLoaded()) return false;
+            Map<Integer, Item> byId = new HashMap<>(saved.items().size() * 2);
+            for (Item it : saved.items()) byId.put(it.id(), it);
+            current = new Snapshot(current.version + 1, saved.watermark(),
+                    Collections.unmodifiableMap(byId), true);
+            return true;
+        }
+    }
+
+    /**
+     * Bring the cache up to date with the database.
+     * @return the rows that changed; empty when nothing did
+     */
+    public Delta refresh() throws SQLException {
+        synchronized (refreshLock) {
+            Snapshot base = current;
+            if (!base.isLoaded()) return fullReload();
+
+            long since = base.watermark - OVERLAP_SECS;
+            Map<Integer, Item> upserts = new LinkedHashMap<>();
+            Set<Integer> deletes = new LinkedHashSet<>();
+            long watermark = base.watermark;
+
+            try (Connection conn = DBHelper.getReadConnection()) {
+                try (PreparedStatement ps = DBHelper.prepareCached(conn,
+                        "SELECT " + COLS + " FROM medicines WHERE last_updated >= ?")) {
+                    ps.setLong(1, since);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            Item it = map(rs);
+                            watermark = Math.max(watermark, it.lastUpdated());
+                            if (!it.equals(base.byId.get(it.id()))) upserts.put(it.id(), it);
+                        }
+                    }
+                }
+                try (PreparedStatement ps = DBHelper.prepareCached(conn,
+                        "SELECT serial_number, deleted_at FROM medicine_tombstones WHERE deleted_at >= ?")) {
+                    ps.setLong(1, since);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            int id = rs.getInt(1);
+                            watermark = Math.max(watermark, rs.getLong(2));
+                            if (base.byId.containsKey(id) && !upserts.containsKey(id)) deletes.add(id);
+                        }
+                    }
+                }
+            }
+
+            if (base.stale && !countMatches(base, upserts.keySet(), deletes)) {
+                // The saved copy doesn't belong to this DB (restored/replaced file): start over
+                return fullReload();
+            }
+            if (upserts.isEmpty() && deletes.isEmpty()) {
+                if (watermark != base.watermark || base.stale) {
+                    current = new Snapshot(base.version, watermark, base.byId, false);
+                }
+                return Delta.none(current);
+            }
+            return publish(base, upserts.values(), deletes, watermark, false);
+        }
+    }
+
+    // Cheap sanity check for a seeded snapshot: after the delta, do we hold as many rows as the table?
+    private static boolean countMatches(Snapshot base, Set<Integer> upserts, Set<Integer> deletes)
+            throws SQLException {
+        int expected = base.byId.size() - deletes.size();
+        for (Integer id : upserts) {
+            if (!base.byId.containsKey(id)) expected++;
+        }
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement ps = DBHelper.prepareCached(conn, "SELECT COUNT(*) FROM medicines");
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getInt(1) == expected;
+        }
+    }
+
+    /** Apply changes received from elsewhere (e.g. the sync channel) without a DB read. */
+    public Delta apply(Collection<Item> upserts, Collection<Integer> deletes, long watermark) {
+        synchronized (refreshLock) {
+            Snapshot base = current;
+            return publish(base, upserts, deletes, Math.max(base.watermark, watermark), base.stale);
+        }
+    }
+
+    /** Drop everything; the next refresh reloads the whole table. */
+    public void invalidate() {
+        synchronized (refreshLock) {
+            current = new Snapshot(current.version + 1, -1, Map.of(), false);
+        }
+    }
+
+    private Delta fullReload() throws SQLException {
+        Map<Integer, Item> all = new HashMap<>();
+        long watermark = 0;
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement ps = DBHelper.prepareCached(conn,
+                     "SELECT " + COLS + " FROM medicines ORDER BY serial_number");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Item it = map(rs);
+                all.put(it.id(), it);
+                watermark = Math.max(watermark, it.lastUpdated());
+            }
+        }
+        Snapshot base = current;
+        Set<Integer> removed = new HashSet<>(base.byId.keySet());
+        removed.removeAll(all.keySet());
+        List<Item> changed = new ArrayList<>();
+        for (Item it : all.values()) {
+            if (!it.equals(base.byId.get(it.id()))) changed.add(it);
+        }
+        Snapshot next = new Snapshot(base.version + 1, watermark, Collections.unmodifiableMap(all), false);
+        current = next;
+        return fire(new Delta(base.version, next.version, changed, List.copyOf(removed), true));
+    }
+
+    private Delta publish(Snapshot base, Collection<Item> upserts,
+                          Collection<Integer> deletes, long watermark, boolean stale) {
+        Map<Integer, Item> next = new HashMap<>(base.byId);
+        List<Item> changed = new ArrayList<>(upserts.size());
+        for (Item it : upserts) {
+            if (!it.equals(next.put(it.id(), it))) changed.add(it);
+        }
+        List<Integer> removed = new ArrayList<>(deletes.size());
+        for (Integer id : deletes) {
+            if (next.remove(id) != null) removed.add(id);
+        }
+        if (changed.isEmpty() && removed.isEmpty()) return Delta.none(base);
+
+        Snapshot snap = new Snapshot(base.version + 1, watermark,
+                Collections.unmodifiableMap(next), stale);
+        current = snap;
+        return fire(new Delta(base.version, snap.version, changed, removed, false));
+    }
+
+    private Delta fire(Delta d) {
+        if (d.isEmpty()) return d;
+        for (Consumer<Delta> l : listeners) {
+            try {
+                l.accept(d);
+            } catch (RuntimeException e) {
+                FileLogger.at(Level.WARN).op("catalogRefresh").field("version", d.toVersion())
+                        .log("Catalog listener failed", e);
+            }
+        }
+        return d;
+    }
+
+    private static Item map(ResultSet rs) throws SQLException {
+        String img = rs.getString("image_path");
+        if (rs.wasNull()) img = null;
+        return new Item(
+                rs.getInt("serial_number"),
+                rs.getString("name"),
+                rs.getString("category"),
+                rs.getDouble("price"),
+                rs.getInt("quantity"),
+                rs.getString("expiry"),
+                img,
+                rs.getLong("last_updated"));
+    }
+
+    /* =======================
+       Value types
+       ======================= */
+
+    /** Immutable catalog row (serial_number == Medicine.id). */
+    public record Item(int id, String name, String category, double price,
+                       int quantity, String expiry, String imagePath, long lastUpdated) {
+
+        public Medicine toMedicine() {
+            return new Medicine(id, name, category, price, quantity, expiry, imagePath);
+        }
+    }
+
+    /** Immutable, versioned view of the catalog. */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, -1, Map.of(), false);
+
+        private final long version;
+        private final long watermark;
+        private final Map<Integer, Item> byId;
+        private final boolean stale;
+        private volatile List<Item> ordered;
+
+        Snapshot(long version, long watermark, Map<Integer, Item> byId, boolean stale) {
+            this.version = version;
+            this.watermark = watermark;
+            this.byId = byId;
+            this.stale = stale;
+        }
+
+        public long version() { return version; }
+        /** Highest last_updated/deleted_at seen (DB clock, epoch seconds); -1 if never loaded. */
+        public long watermark() { return watermark; }
+        public boolean isLoaded() { return watermark >= 0; }
+        /** True while serving rows that have not been confirmed against the DB yet. */
+        public boolean isStale() { return stale; }
+        public int size() { return byId.size(); }
+        public Item get(int id) { return byId.get(id); }
+
+        /** Rows ordered by serial_number. */
+        public List<Item> items() {
+            List<Item> l = ordered;
+            if (l == null) {
+                l = new ArrayList<>(byId.values());
+                l.sort(Comparator.comparingInt(Item::id));
+                ordered = l = Collections.unmodifiableList(l);
+            }
+            return l;
+        }
+
+        public List<Medicine> toMedicines() {
+            List<Medicine> out = new ArrayList<>(byId.size());
+            for (Item it : items()) out.add(it.toMedicine());
+            return out;
+        }
+    }
+
+    /** What one refresh/apply changed between two snapshot versions. */
+    public record Delta(long fromVersion, long toVersion, List<Item> upserts,
+                        List<Integer> deletes, boolean full) {
+
+        static Delta none(Snapshot s) {
+            return new Delta(s.version(), s.version(), List.of(), List.of(), false);
+        }
+
+        public boolean isEmpty() { return upserts.isEmpty() && deletes.isEmpty(); }
+    }
+}
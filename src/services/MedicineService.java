@@ -4,19 +4,30 @@ import models.Medicine;
 import utils.DBHelper;
 import utils.AppException;
 import utils.FileLogger;
+import utils.FileLogger.Level;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 // NEW: file I/O failsafe imports
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.time.Instant;
 
 public class MedicineService {
 
+    public MedicineService() {
+        // Replays mutations that failed while the DB was busy/unavailable (no-op after the first call)
+        OfflineQueue.getInstance().start(MedicineService::applyQueued);
+        CatalogSnapshotFile.persistOnChange(MedicineCatalog.getInstance());
+    }
+
     /* =======================
        Live-update listeners (in-process)
        ======================= */
@@ -48,40 +59,25 @@ public class MedicineService {
 
     // NOTE: serial_number is the PK in DB.
     // In the model, Medicine.id == medicines.serial_number
+    // Served from the shared MedicineCatalog; only changed rows are read from the DB.
+    // The on-disk snapshot is kept up to date in the background (CatalogSnapshotFile).
     public List<Medicine> getAllMedicines() {
-        String sql =
-                "SELECT serial_number, name, category, price, quantity, expiry, image_path " +
-                        "FROM medicines";
-
-        List<Medicine> medicines = new ArrayList<>();
-
-        try (Connection conn = DBHelper.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        MedicineCatalog catalog = MedicineCatalog.getInstance();
+        try {
+            catalog.refresh();
+            return catalog.snapshot().toMedicines();
 
-            while (rs.next()) {
-                medicines.add(new Medicine(
-                        rs.getInt("serial_number"),            // model id
-                        rs.getString("name"),
-                        rs.getString("category"),
-                        rs.getDouble("price"),
-                        rs.getInt("quantity"),
-                        rs.getString("expiry"),
-                        rsSafeGet(rs, "image_path")
-                ));
-            }
+        } catch (SQLException e) {
+            FileLogger.at(Level.ERROR).op("getAllMedicines").log("DB error", e);
 
-            // Snapshot to file (best-effort; never throws outward)
-            try { writeSnapshot(medicines); } catch (Exception snapEx) {
-                FileLogger.warn("Snapshot write failed: " + snapEx.getMessage());
+            // Fallback 1: whatever the in-memory catalog already holds
+            MedicineCatalog.Snapshot snap = catalog.snapshot();
+            if (snap.isLoaded()) {
+                FileLogger.warn("DB read failed; served data from in-memory catalog.");
+                return snap.toMedicines();
             }
 
-            return medicines;
-
-        } catch (SQLException e) {
-            FileLogger.error("DB error in getAllMedicines: " + e.getMessage(), e);
-
-            // Fallback: attempt to read last good snapshot
+            // Fallback 2: last snapshot on disk (binary; JSON from older builds)
             try {
                 List<Medicine> cached = readSnapshot();
                 if (!cached.isEmpty()) {
@@ -101,8 +97,8 @@ public class MedicineService {
         String sql =
                 "SELECT serial_number, name, category, price, quantity, expiry, image_path " +
                         "FROM medicines WHERE serial_number = ?";
-        try (Connection conn = DBHelper.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement stmt = DBHelper.prepareCached(conn, sql)) {
 
             stmt.setInt(1, id);
             ResultSet rs = stmt.executeQuery();
@@ -120,23 +116,276 @@ public class MedicineService {
             return null;
 
         } catch (SQLException e) {
-            FileLogger.error("DB error in getMedicineById(" + id + "): " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("getMedicineById").field("medicineId", id).log("DB error", e);
             throw new AppException("Failed to load medicine details. Please try again.", e);
         }
     }
 
+    /**
+     * Full-text search over name and category (FTS5, prefix match per word),
+     * best matches first. A blank query returns an empty list.
+     */
+    public List<Medicine> search(String query, int limit, int offset) {
+        String match = toMatchExpression(query);
+        if (match == null) return List.of();
+
+        String sql = """
+                SELECT m.serial_number, m.name, m.category, m.price, m.quantity, m.expiry, m.image_path
+                FROM medicines_fts f
+                JOIN medicines m ON m.serial_number = f.rowid
+                WHERE medicines_fts MATCH ?
+                ORDER BY bm25(medicines_fts, 10.0, 3.0), m.serial_number
+                LIMIT ? OFFSET ?
+                """;
+        List<Medicine> out = new ArrayList<>();
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement stmt = DBHelper.prepareCached(conn, sql)) {
+
+            stmt.setString(1, match);
+            stmt.setInt(2, Math.max(0, limit));
+            stmt.setInt(3, Math.max(0, offset));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                out.add(new Medicine(
+                        rs.getInt("serial_number"),
+                        rs.getString("name"),
+                        rs.getString("category"),
+                        rs.getDouble("price"),
+                        rs.getInt("quantity"),
+                        rs.getString("expiry"),
+                        rsSafeGet(rs, "image_path")
+                ));
+            }
+            return out;
+
+        } catch (SQLException e) {
+            FileLogger.at(Level.ERROR).op("search").field("query", query).log("DB error", e);
+            throw new AppException("Search failed. Please try again.", e);
+        }
+    }
+
+    /* =======================
+       Keyset pagination (category, price, serial_number)
+       ======================= */
+
+    /** Position just after the last row of a page. */
+    public record PageCursor(String category, double price, int serialNumber) {}
+
+    /** One page of medicines plus the cursor for the next one (null when done). */
+    public record Page(List<Medicine> items, PageCursor next) {
+        public boolean hasMore() { return next != null; }
+    }
+
+    /**
+     * Medicines ordered by category, then price (asc or desc), then serial_number.
+     * Uses keyset pagination, so page N costs the same as page 1.
+     *
+     * @param query     optional FTS search text (null/blank = whole catalog)
+     * @param after     cursor from the previous page, or null for the first page
+     */
+    public Page getPage(String query, boolean priceDescending, PageCursor after, int limit) {
+        String match = toMatchExpression(query);
+        int size = Math.max(1, limit);
+
+        StringBuilder sql = new StringBuilder(
+                "SELECT serial_number, name, category, price, quantity, expiry, image_path " +
+                        "FROM medicines WHERE 1=1");
+        if (match != null) {
+            sql.append(" AND serial_number IN (SELECT rowid FROM medicines_fts WHERE medicines_fts MATCH ?)");
+        }
+        if (after != null) {
+            // Ascending can seek the index with a row value; mixed directions need the expanded form
+            sql.append(priceDescending
+                    ? " AND (category > ? OR (category = ? AND (price < ? OR (price = ? AND serial_number < ?))))"
+                    : " AND (category, price, serial_number) > (?, ?, ?)");
+        }
+        sql.append(priceDescending
+                ? " ORDER BY category, price DESC, serial_number DESC"
+                : " ORDER BY category, price, serial_number");
+        sql.append(" LIMIT ?");
+
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement stmt = DBHelper.prepareCached(conn, sql.toString())) {
+
+            int i = 1;
+            if (match != null) stmt.setString(i++, match);
+            if (after != null && priceDescending) {
+                stmt.setString(i++, after.category());
+                stmt.setString(i++, after.category());
+                stmt.setDouble(i++, after.price());
+                stmt.setDouble(i++, after.price());
+                stmt.setInt(i++, after.serialNumber());
+            } else if (after != null) {
+                stmt.setString(i++, after.category());
+                stmt.setDouble(i++, after.price());
+                stmt.setInt(i++, after.serialNumber());
+            }
+            stmt.setInt(i, size + 1); // one extra row tells us whether another page exists
+
+            List<Medicine> items = new ArrayList<>(size);
+            boolean more = false;
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                if (items.size() == size) { more = true; break; }
+                items.add(new Medicine(
+                        rs.getInt("serial_number"),
+                        rs.getString("name"),
+                        rs.getString("category"),
+                        rs.getDouble("price"),
+                        rs.getInt("quantity"),
+                        rs.getString("expiry"),
+                        rsSafeGet(rs, "image_path")
+                ));
+            }
+
+            PageCursor next = null;
+            if (more) {
+                Medicine last = items.get(items.size() - 1);
+                next = new PageCursor(last.getCategory(), last.getPrice(), last.getId());
+            }
+            return new Page(items, next);
+
+        } catch (SQLException e) {
+            FileLogger.at(Level.ERROR).op("getPage").field("query", query).log("DB error", e);
+            throw new AppException("Failed to load medicines. Please try again.", e);
+        }
+    }
+
+    /**
+     * Same ordering and cursor as the DB version, served from a catalog snapshot
+     * without touching the DB (used to render a stale snapshot at startup).
+     * The query matches word prefixes in name or category, like the FTS search.
+     */
+    public Page getPage(MedicineCatalog.Snapshot snap, String query, boolean priceDescending,
+                        PageCursor after, int limit) {
+        int size = Math.max(1, limit);
+        List<String> terms = new ArrayList<>();
+        if (query != null) {
+            for (String tok : query.trim().toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (!tok.isEmpty()) terms.add(tok);
+            }
+        }
+
+        Comparator<String> byText = Comparator.nullsFirst(Comparator.naturalOrder());
+        Comparator<MedicineCatalog.Item> byPrice = Comparator.comparingDouble(MedicineCatalog.Item::price);
+        Comparator<MedicineCatalog.Item> byId = Comparator.comparingInt(MedicineCatalog.Item::id);
+        Comparator<MedicineCatalog.Item> order = Comparator
+                .comparing(MedicineCatalog.Item::category, byText)
+                .thenComparing(priceDescending ? byPrice.reversed() : byPrice)
+                .thenComparing(priceDescending ? byId.reversed() : byId);
+        MedicineCatalog.Item cursor = (after == null) ? null
+                : new MedicineCatalog.Item(after.serialNumber(), null, after.category(),
+                        after.price(), 0, null, null, 0);
+
+        List<MedicineCatalog.Item> rows = new ArrayList<>();
+        for (MedicineCatalog.Item it : snap.items()) {
+            if (cursor != null && order.compare(it, cursor) <= 0) continue;
+            if (matchesTerms(it, terms)) rows.add(it);
+        }
+        rows.sort(order);
+
+        List<Medicine> items = new ArrayList<>(Math.min(size, rows.size()));
+        for (int i = 0; i < rows.size() && i < size; i++) items.add(rows.get(i).toMedicine());
+        PageCursor next = null;
+        if (rows.size() > size) {
+            Medicine last = items.get(items.size() - 1);
+            next = new PageCursor(last.getCategory(), last.getPrice(), last.getId());
+        }
+        return new Page(items, next);
+    }
+
+    // Every term must be a prefix of some word of the name or category
+    private static boolean matchesTerms(MedicineCatalog.Item it, List<String> terms) {
+        if (terms.isEmpty()) return true;
+        String[] words = ((it.name() == null ? "" : it.name()) + " " + (it.category() == null ? "" : it.category()))
+                .toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        for (String term : terms) {
+            boolean hit = false;
+            for (String w : words) {
+                if (w.startsWith(term)) { hit = true; break; }
+            }
+            if (!hit) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Catalog to draw the first frame from, without touching the DB: whatever is
+     * in memory, else the snapshot saved by the last run (marked stale until the
+     * next {@link #refreshCatalog()}).
+     */
+    public MedicineCatalog.Snapshot warmCatalog() {
+        MedicineCatalog catalog = MedicineCatalog.getInstance();
+        if (!catalog.snapshot().isLoaded()) catalog.seed(CatalogSnapshotFile.read());
+        return catalog.snapshot();
+    }
+
+    /** Delta-refresh the shared catalog; returns what changed since the last refresh. */
+    public MedicineCatalog.Delta refreshCatalog() {
+        try {
+            return MedicineCatalog.getInstance().refresh();
+        } catch (SQLException e) {
+            FileLogger.at(Level.ERROR).op("refreshCatalog").log("DB error", e);
+            throw new AppException("Failed to refresh medicines. Please try again.", e);
+        }
+    }
+
+    // "para 50" -> "para"* "50"*  (every word must match as a prefix)
+    private static String toMatchExpression(String query) {
+        if (query == null) return null;
+        StringBuilder sb = new StringBuilder();
+        for (String tok : query.trim().split("[^\\p{L}\\p{N}]+")) {
+            if (tok.isEmpty()) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append('"').append(tok).append("\"*");
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
     /* =======================
        Mutations (with failsafe queue on failure)
        ======================= */
 
+    // Shared by the public mutations and the offline replay (applyQueued)
+    private static final String SQL_INSERT = """
+            INSERT INTO medicines(name, category, price, quantity, expiry, image_path, last_updated)
+            VALUES(?,?,?,?,?, ?, CAST(strftime('%s','now') AS INTEGER))
+            """;
+    private static final String SQL_UPDATE_BASIC = """
+            UPDATE medicines
+            SET name=?, category=?, price=?, quantity=?, expiry=?,
+                last_updated = CAST(strftime('%s','now') AS INTEGER)
+            WHERE serial_number = ?
+            """;
+    private static final String SQL_UPDATE_FULL = """
+            UPDATE medicines
+            SET name=?, category=?, price=?, quantity=?, expiry=?, image_path=?,
+                last_updated = CAST(strftime('%s','now') AS INTEGER)
+            WHERE serial_number = ?
+            """;
+    private static final String SQL_UPDATE_QTY = """
+            UPDATE medicines
+            SET quantity=?, last_updated = CAST(strftime('%s','now') AS INTEGER)
+            WHERE serial_number = ?
+            """;
+    private static final String SQL_UPDATE_IMAGE = """
+            UPDATE medicines
+            SET image_path=?, last_updated = CAST(strftime('%s','now') AS INTEGER)
+            WHERE serial_number = ?
+            """;
+    private static final String SQL_DELETE = "DELETE FROM medicines WHERE serial_number = ?";
+    private static final String SQL_LAST_UPDATED =
+            "SELECT COALESCE(last_updated, 0) FROM medicines WHERE serial_number = ?";
+
+    // Replayed updates carry absolute values: apply only while the row is as it was when queued
+    private static final String REPLAY_GUARD = "  AND COALESCE(last_updated, 0) BETWEEN ? AND ?\n";
+
     public boolean addMedicine(Medicine m) {
         if (m == null) return false;
-        String sql = """
-                INSERT INTO medicines(name, category, price, quantity, expiry, image_path, last_updated)
-                VALUES(?,?,?,?,?, ?, CAST(strftime('%s','now') AS INTEGER))
-                """;
+        long t0 = System.nanoTime();
+        String sql = SQL_INSERT;
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+             PreparedStatement stmt = DBHelper.prepareCached(conn, sql)) {
 
             stmt.setString(1, safe(m.getName()));
             stmt.setString(2, safe(m.getCategory()));
@@ -147,15 +396,15 @@ public class MedicineService {
 
             boolean ok = stmt.executeUpdate() > 0;
             if (ok) {
-                FileLogger.info("Added medicine: " + m.getName());
+                FileLogger.at(Level.INFO).op("addMedicine").latencySince(t0).log("Added medicine {}", m.getName());
                 onDataChanged();
             }
             return ok;
 
         } catch (SQLException e) {
-            FileLogger.error("DB error adding medicine: " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("addMedicine").latencySince(t0).log("DB error", e);
             try { appendFailsafe("add", m); } catch (Exception ioEx) {
-                FileLogger.warn("Failsafe log failed: " + ioEx.getMessage());
+                FileLogger.warn("Failsafe log failed: {}", ioEx.getMessage());
             }
             throw new AppException("Could not add medicine (database error).", e);
         }
@@ -164,10 +413,8 @@ public class MedicineService {
     // Returns generated serial_number
     public Integer addMedicineReturningId(Medicine m) {
         if (m == null) return null;
-        String sql = """
-                INSERT INTO medicines(name, category, price, quantity, expiry, image_path, last_updated)
-                VALUES(?,?,?,?,?, ?, CAST(strftime('%s','now') AS INTEGER))
-                """;
+        long t0 = System.nanoTime();
+        String sql = SQL_INSERT;
         try (Connection conn = DBHelper.getConnection();
              PreparedStatement stmt =
                      conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
@@ -183,7 +430,8 @@ public class MedicineService {
             if (count > 0) {
                 try (ResultSet keys = stmt.getGeneratedKeys()) {
                     Integer id = keys.next() ? keys.getInt(1) : null;
-                    FileLogger.info("Added medicine (id=" + id + "): " + m.getName());
+                    FileLogger.at(Level.INFO).op("addMedicine").field("medicineId", id)
+                            .latencySince(t0).log("Added medicine {}", m.getName());
                     onDataChanged();
                     return id;
                 }
@@ -191,9 +439,9 @@ public class MedicineService {
             return null;
 
         } catch (SQLException e) {
-            FileLogger.error("DB error addMedicineReturningId: " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("addMedicine").latencySince(t0).log("DB error", e);
             try { appendFailsafe("addReturningId", m); } catch (Exception ioEx) {
-                FileLogger.warn("Failsafe log failed: " + ioEx.getMessage());
+                FileLogger.warn("Failsafe log failed: {}", ioEx.getMessage());
             }
             throw new AppException("Could not add medicine (database error).", e);
         }
@@ -202,14 +450,10 @@ public class MedicineService {
     // Update basic fields (no image_path)
     public boolean updateMedicine(int id, String name, String category,
                                   double price, int quantity, String expiry) {
-        String sql = """
-                UPDATE medicines
-                SET name=?, category=?, price=?, quantity=?, expiry=?,
-                    last_updated = CAST(strftime('%s','now') AS INTEGER)
-                WHERE serial_number = ?
-                """;
+        long t0 = System.nanoTime();
+        String sql = SQL_UPDATE_BASIC;
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+             PreparedStatement stmt = DBHelper.prepareCached(conn, sql)) {
 
             stmt.setString(1, safe(name));
             stmt.setString(2, safe(category));
@@ -220,18 +464,20 @@ public class MedicineService {
 
             boolean ok = stmt.executeUpdate() > 0;
             if (ok) {
-                FileLogger.info("Updated medicine (id=" + id + ")");
+                FileLogger.at(Level.INFO).op("updateMedicine").field("medicineId", id)
+                        .latencySince(t0).log("Updated medicine");
                 onDataChanged();
             }
             return ok;
 
         } catch (SQLException e) {
-            FileLogger.error("DB error updateMedicine(id=" + id + "): " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("updateMedicine").field("medicineId", id)
+                    .latencySince(t0).log("DB error", e);
             try {
                 appendFailsafe("update",
                         new Medicine(id, name, category, price, quantity, expiry, null));
             } catch (Exception ioEx) {
-                FileLogger.warn("Failsafe log failed: " + ioEx.getMessage());
+                FileLogger.warn("Failsafe log failed: {}", ioEx.getMessage());
             }
             throw new AppException("Could not update medicine (database error).", e);
         }
@@ -240,14 +486,10 @@ public class MedicineService {
     // Full update including image_path
     public boolean updateMedicine(Medicine m) {
         if (m == null) return false;
-        String sql = """
-                UPDATE medicines
-                SET name=?, category=?, price=?, quantity=?, expiry=?, image_path=?,
-                    last_updated = CAST(strftime('%s','now') AS INTEGER)
-                WHERE serial_number = ?
-                """;
+        long t0 = System.nanoTime();
+        String sql = SQL_UPDATE_FULL;
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+             PreparedStatement stmt = DBHelper.prepareCached(conn, sql)) {
 
             stmt.setString(1, safe(m.getName()));
             stmt.setString(2, safe(m.getCategory()));
@@ -259,47 +501,47 @@ public class MedicineService {
 
             boolean ok = stmt.executeUpdate() > 0;
             if (ok) {
-                FileLogger.info("Updated medicine (with image) id=" + m.getId());
+                FileLogger.at(Level.INFO).op("updateMedicine").field("medicineId", m.getId())
+                        .latencySince(t0).log("Updated medicine (with image)");
                 onDataChanged();
             }
             return ok;
 
         } catch (SQLException e) {
-            FileLogger.error("DB error updateMedicine(with image) id=" +
-                    (m != null ? m.getId() : null) + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("updateMedicine").field("medicineId", m.getId())
+                    .latencySince(t0).log("DB error (with image)", e);
             try { appendFailsafe("updateFull", m); }
-            catch (Exception ioEx) { FileLogger.warn("Failsafe log failed: " + ioEx.getMessage()); }
+            catch (Exception ioEx) { FileLogger.warn("Failsafe log failed: {}", ioEx.getMessage()); }
             throw new AppException("Could not update medicine (database error).", e);
         }
     }
 
     // Update only quantity (used by admin or other services)
     public boolean updateQuantity(int id, int qty) {
-        String sql = """
-                UPDATE medicines
-                SET quantity=?, last_updated = CAST(strftime('%s','now') AS INTEGER)
-                WHERE serial_number = ?
-                """;
+        long t0 = System.nanoTime();
+        String sql = SQL_UPDATE_QTY;
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+             PreparedStatement stmt = DBHelper.prepareCached(conn, sql)) {
 
             stmt.setInt(1, qty);
             stmt.setInt(2, id);
 
             boolean ok = stmt.executeUpdate() > 0;
             if (ok) {
-                FileLogger.info("Updated quantity id=" + id + " -> " + qty);
+                FileLogger.at(Level.INFO).op("updateQuantity").field("medicineId", id).field("quantity", qty)
+                        .latencySince(t0).log("Updated quantity");
                 onDataChanged();
             }
             return ok;
 
         } catch (SQLException e) {
-            FileLogger.error("DB error updateQuantity(id=" + id + "): " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("updateQuantity").field("medicineId", id)
+                    .latencySince(t0).log("DB error", e);
             try {
                 appendFailsafe("updateQty",
                         new Medicine(id, null, null, 0.0, qty, null, null));
             } catch (Exception ioEx) {
-                FileLogger.warn("Failsafe log failed: " + ioEx.getMessage());
+                FileLogger.warn("Failsafe log failed: {}", ioEx.getMessage());
             }
             throw new AppException("Could not update quantity (database error).", e);
         }
@@ -307,56 +549,58 @@ public class MedicineService {
 
     // Update only image path
     public boolean updateImagePath(int id, String imagePath) {
-        String sql = """
-                UPDATE medicines
-                SET image_path=?, last_updated = CAST(strftime('%s','now') AS INTEGER)
-                WHERE serial_number = ?
-                """;
+        long t0 = System.nanoTime();
+        String sql = SQL_UPDATE_IMAGE;
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+             PreparedStatement stmt = DBHelper.prepareCached(conn, sql)) {
 
             setNullableString(stmt, 1, imagePath);
             stmt.setInt(2, id);
 
             boolean ok = stmt.executeUpdate() > 0;
             if (ok) {
-                FileLogger.info("Updated image_path id=" + id + " -> " + imagePath);
+                FileLogger.at(Level.INFO).op("updateImagePath").field("medicineId", id).field("imagePath", imagePath)
+                        .latencySince(t0).log("Updated image_path");
                 onDataChanged();
             }
             return ok;
 
         } catch (SQLException e) {
-            FileLogger.error("DB error updateImagePath(id=" + id + "): " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("updateImagePath").field("medicineId", id)
+                    .latencySince(t0).log("DB error", e);
             try {
                 appendFailsafe("updateImage",
                         new Medicine(id, null, null, 0.0, 0, null, imagePath));
             } catch (Exception ioEx) {
-                FileLogger.warn("Failsafe log failed: " + ioEx.getMessage());
+                FileLogger.warn("Failsafe log failed: {}", ioEx.getMessage());
             }
             throw new AppException("Could not update image (database error).", e);
         }
     }
 
     public boolean deleteMedicine(int id) {
+        long t0 = System.nanoTime();
         // Step 1: Attempt to delete the medicine, let the database handle cascading
-        String deleteSql = "DELETE FROM medicines WHERE serial_number = ?";
+        String deleteSql = SQL_DELETE;
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
+             PreparedStatement stmt = DBHelper.prepareCached(conn, deleteSql)) {
 
             stmt.setInt(1, id);
             boolean ok = stmt.executeUpdate() > 0;
             if (ok) {
-                FileLogger.info("Deleted medicine id=" + id);
+                FileLogger.at(Level.INFO).op("deleteMedicine").field("medicineId", id)
+                        .latencySince(t0).log("Deleted medicine");
                 onDataChanged();  // Notify listeners about the data change
             }
             return ok;
 
         } catch (SQLException e) {
-            FileLogger.error("DB error deleteMedicine(id=" + id + "): " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("deleteMedicine").field("medicineId", id)
+                    .latencySince(t0).log("DB error", e);
             try {
                 appendFailsafe("delete", new Medicine(id, null, null, 0.0, 0, null, null));
             } catch (Exception ioEx) {
-                FileLogger.warn("Failsafe log failed: " + ioEx.getMessage());
+                FileLogger.warn("Failsafe log failed: {}", ioEx.getMessage());
             }
             throw new AppException("Could not delete medicine (database error).", e);
         }
@@ -390,38 +634,27 @@ public class MedicineService {
     }
 
     /* =======================
-       File I/O failsafe (snapshot + offline queue)
+       File I/O failsafe (snapshot + offline queue via OfflineQueue)
        ======================= */
 
-    private static final Path SNAPSHOT_FILE =
+    // Written by builds before CatalogSnapshotFile; read only as a last resort
+    private static final Path LEGACY_SNAPSHOT_FILE =
             Paths.get("data", "medicines_snapshot.json");
-    private static final Path OFFLINE_QUEUE =
-            Paths.get("data", "offline_queue.jsonl");
-
-    private void ensureDataDir() throws Exception {
-        Files.createDirectories(Paths.get("data"));
-    }
 
-    // Best-effort snapshot writer (JSON array)
-    private void writeSnapshot(List<Medicine> list) throws Exception {
-        ensureDataDir();
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"savedAt\":").append(Instant.now().getEpochSecond())
-                .append(",\"items\":[");
-        for (int i = 0; i < list.size(); i++) {
-            Medicine m = list.get(i);
-            sb.append(toJson(m));
-            if (i < list.size() - 1) sb.append(',');
+    private List<Medicine> readSnapshot() throws Exception {
+        CatalogSnapshotFile.Loaded bin = CatalogSnapshotFile.read();
+        if (bin != null) {
+            List<Medicine> out = new ArrayList<>(bin.items().size());
+            for (MedicineCatalog.Item it : bin.items()) out.add(it.toMedicine());
+            return out;
         }
-        sb.append("]}");
-        Files.writeString(SNAPSHOT_FILE, sb.toString(), StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        return readLegacySnapshot();
     }
 
-    // Read snapshot (returns empty list if missing/bad)
-    private List<Medicine> readSnapshot() throws Exception {
-        if (!Files.exists(SNAPSHOT_FILE)) return List.of();
-        String json = Files.readString(SNAPSHOT_FILE, StandardCharsets.UTF_8);
+    // Read legacy JSON snapshot (returns empty list if missing/bad)
+    private List<Medicine> readLegacySnapshot() throws Exception {
+        if (!Files.exists(LEGACY_SNAPSHOT_FILE)) return List.of();
+        String json = Files.readString(LEGACY_SNAPSHOT_FILE, StandardCharsets.UTF_8);
         // very small/no-deps parser (expects the structure we wrote)
         List<Medicine> out = new ArrayList<>();
         int arrStart = json.indexOf("\"items\":[");
@@ -450,13 +683,247 @@ public class MedicineService {
         return out;
     }
 
-    // append a JSON line describing a failed mutation
+    private static final AtomicLong ADD_SEQ = new AtomicLong();
+
+    /**
+     * Durably queue a failed mutation; OfflineQueue replays it once the DB is writable.
+     *
+     * Row updates go in as one "patch" per medicine (key "row:<id>") that names the
+     * fields it sets; a later edit to the same row folds its fields into the pending
+     * patch, so replaying one edit can't make the next look stale. The patch keeps the
+     * row's last_updated as the DB had it when the first edit was queued
+     * ("baseUpdated"), or failing that when it was queued ("queuedAt"), so the replay
+     * can tell whether the row was written since (an order taking stock) and stand down.
+     */
     private void appendFailsafe(String op, Medicine m) throws Exception {
-        ensureDataDir();
-        String line = "{\"ts\":" + Instant.now().getEpochSecond()
-                + ",\"op\":\"" + escape(op) + "\",\"payload\":" + toJson(m) + "}\n";
-        Files.writeString(OFFLINE_QUEUE, line, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        String fields = patchFields(op);
+        if (fields == null) {
+            String payload = toJson(m);
+            OfflineQueue.getInstance().enqueue(op, queueKey(op, payload), payload);
+            return;
+        }
+        OfflineQueue.getInstance().enqueueMerged("patch", "row:" + m.getId(),
+                pending -> mergePatch(pending, m, fields));
+    }
+
+    // Fields each row update sets, in patch payload terms; null if op isn't a row update
+    private static String patchFields(String op) {
+        return switch (op) {
+            case "update" -> "name,category,price,quantity,expiry";
+            case "updateFull" -> "name,category,price,quantity,expiry,imagePath";
+            case "updateQty" -> "quantity";
+            case "updateImage" -> "imagePath";
+            default -> null;
+        };
+    }
+
+    private static boolean isRowUpdate(String op) {
+        return switch (op) {
+            case "patch", "update", "updateFull", "updateQty", "updateImage" -> true;
+            default -> false;
+        };
+    }
+
+    // Called under the queue lock; pending is this row's patch not applied yet (or null)
+    private static String mergePatch(String pending, Medicine edit, String fields) {
+        Long current = currentLastUpdated(edit.getId());
+        String freshGuard = (current != null)
+                ? "\"baseUpdated\":" + current
+                : "\"queuedAt\":" + (System.currentTimeMillis() / 1000);
+        if (pending == null) return patchJson(edit, fields, freshGuard);
+
+        long base = longVal(pending, "\"baseUpdated\":", Long.MIN_VALUE);
+        if (base != Long.MIN_VALUE && current != null && current != base) {
+            // Row written since the pending edits were made: they'd be skipped on replay anyway
+            FileLogger.at(Level.WARN).op("offlineEnqueue").field("medicineId", edit.getId())
+                    .log("Dropped queued edits superseded by a newer write");
+            return patchJson(edit, fields, freshGuard);
+        }
+
+        List<Medicine> parsed = new ArrayList<>(1);
+        parseMedicineJson(pending, parsed);
+        String pendingFields = strVal(pending, "\"set\":");
+        if (parsed.isEmpty() || pendingFields == null) return patchJson(edit, fields, freshGuard);
+        Medicine old = parsed.get(0);
+        List<String> mine = List.of(fields.split(","));
+        Set<String> set = new LinkedHashSet<>(List.of(pendingFields.split(",")));
+        set.addAll(mine);
+
+        Medicine merged = new Medicine(edit.getId(),
+                mine.contains("name") ? edit.getName() : old.getName(),
+                mine.contains("category") ? edit.getCategory() : old.getCategory(),
+                mine.contains("price") ? edit.getPrice() : old.getPrice(),
+                mine.contains("quantity") ? edit.getQuantity() : old.getQuantity(),
+                mine.contains("expiry") ? edit.getExpiryDate() : old.getExpiryDate(),
+                mine.contains("imagePath") ? edit.getImagePath() : old.getImagePath());
+        String guard = (base != Long.MIN_VALUE)
+                ? "\"baseUpdated\":" + base
+                : "\"queuedAt\":" + longVal(pending, "\"queuedAt\":", System.currentTimeMillis() / 1000);
+        return patchJson(merged, String.join(",", set), guard);
+    }
+
+    // "set" and the guard go first so a name containing their keys can't shadow them
+    private static String patchJson(Medicine m, String fields, String guard) {
+        return "{\"set\":\"" + fields + "\"," + guard + "," + toJson(m).substring(1);
+    }
+
+    // Row's last_updated as the DB has it now; null if it can't be read or the row is gone
+    private static Long currentLastUpdated(int id) {
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement st = DBHelper.prepareCached(conn, SQL_LAST_UPDATED)) {
+            st.setInt(1, id);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Idempotency key for a queued mutation: repeats of the same edit collapse.
+     * Deletes (and updates queued by older builds) are per row; every insert is its
+     * own row, so each gets a unique key. Row updates are keyed in appendFailsafe.
+     */
+    static String queueKey(String op, String payload) {
+        if ("add".equals(op) || "addReturningId".equals(op)) {
+            return "add:" + System.currentTimeMillis() + "-" + ADD_SEQ.incrementAndGet();
+        }
+        return op + ":" + intVal(payload, "\"id\":", 0);
+    }
+
+    // [lo, hi] that the row's last_updated must fall in for a queued update to apply
+    private static long[] replayWindow(String payload) {
+        long base = longVal(payload, "\"baseUpdated\":", Long.MIN_VALUE);
+        if (base != Long.MIN_VALUE) return new long[]{base, base};
+        long queuedAt = longVal(payload, "\"queuedAt\":", Long.MIN_VALUE);
+        if (queuedAt != Long.MIN_VALUE) return new long[]{Long.MIN_VALUE, queuedAt};
+        return new long[]{Long.MIN_VALUE, Long.MAX_VALUE}; // entries from older builds
+    }
+
+    /** Replay one queued mutation (OfflineQueue thread). Throws so the queue can retry/back off. */
+    static void applyQueued(String op, String payload) throws SQLException {
+        List<Medicine> parsed = new ArrayList<>(1);
+        parseMedicineJson(payload, parsed);
+        if (parsed.isEmpty()) throw new SQLException("Unreadable queued payload", "HY000", 1);
+        Medicine m = parsed.get(0);
+        long[] window = replayWindow(payload);
+        int rows;
+
+        try (Connection conn = DBHelper.getConnection()) {
+            switch (op) {
+                case "add", "addReturningId" -> {
+                    try (PreparedStatement st = DBHelper.prepareCached(conn, SQL_INSERT)) {
+                        st.setString(1, safe(m.getName()));
+                        st.setString(2, safe(m.getCategory()));
+                        st.setDouble(3, m.getPrice());
+                        st.setInt(4, m.getQuantity());
+                        st.setString(5, safe(m.getExpiryDate()));
+                        setNullableString(st, 6, m.getImagePath());
+                        rows = st.executeUpdate();
+                    }
+                }
+                case "patch" -> {
+                    String fields = strVal(payload, "\"set\":");
+                    if (fields == null) throw new SQLException("Unreadable queued patch", "HY000", 1);
+                    String[] set = fields.split(",");
+                    StringBuilder sql = new StringBuilder("UPDATE medicines\nSET ");
+                    for (String f : set) sql.append(patchColumn(f)).append("=?, ");
+                    sql.append("last_updated = CAST(strftime('%s','now') AS INTEGER)\n")
+                       .append("WHERE serial_number = ?\n").append(REPLAY_GUARD);
+                    try (PreparedStatement st = DBHelper.prepareCached(conn, sql.toString())) {
+                        int i = 1;
+                        for (String f : set) bindPatchField(st, i++, f, m);
+                        st.setInt(i++, m.getId());
+                        st.setLong(i++, window[0]);
+                        st.setLong(i, window[1]);
+                        rows = st.executeUpdate();
+                    }
+                }
+                // Row updates queued by older builds
+                case "update" -> {
+                    try (PreparedStatement st = DBHelper.prepareCached(conn, SQL_UPDATE_BASIC + REPLAY_GUARD)) {
+                        st.setString(1, safe(m.getName()));
+                        st.setString(2, safe(m.getCategory()));
+                        st.setDouble(3, m.getPrice());
+                        st.setInt(4, m.getQuantity());
+                        st.setString(5, safe(m.getExpiryDate()));
+                        st.setInt(6, m.getId());
+                        st.setLong(7, window[0]);
+                        st.setLong(8, window[1]);
+                        rows = st.executeUpdate();
+                    }
+                }
+                case "updateFull" -> {
+                    try (PreparedStatement st = DBHelper.prepareCached(conn, SQL_UPDATE_FULL + REPLAY_GUARD)) {
+                        st.setString(1, safe(m.getName()));
+                        st.setString(2, safe(m.getCategory()));
+                        st.setDouble(3, m.getPrice());
+                        st.setInt(4, m.getQuantity());
+                        st.setString(5, safe(m.getExpiryDate()));
+                        setNullableString(st, 6, m.getImagePath());
+                        st.setInt(7, m.getId());
+                        st.setLong(8, window[0]);
+                        st.setLong(9, window[1]);
+                        rows = st.executeUpdate();
+                    }
+                }
+                case "updateQty" -> {
+                    try (PreparedStatement st = DBHelper.prepareCached(conn, SQL_UPDATE_QTY + REPLAY_GUARD)) {
+                        st.setInt(1, m.getQuantity());
+                        st.setInt(2, m.getId());
+                        st.setLong(3, window[0]);
+                        st.setLong(4, window[1]);
+                        rows = st.executeUpdate();
+                    }
+                }
+                case "updateImage" -> {
+                    try (PreparedStatement st = DBHelper.prepareCached(conn, SQL_UPDATE_IMAGE + REPLAY_GUARD)) {
+                        setNullableString(st, 1, m.getImagePath());
+                        st.setInt(2, m.getId());
+                        st.setLong(3, window[0]);
+                        st.setLong(4, window[1]);
+                        rows = st.executeUpdate();
+                    }
+                }
+                case "delete" -> {
+                    try (PreparedStatement st = DBHelper.prepareCached(conn, SQL_DELETE)) {
+                        st.setInt(1, m.getId());
+                        rows = st.executeUpdate();
+                    }
+                }
+                default -> throw new SQLException("Unknown queued op: " + op, "HY000", 1);
+            }
+        }
+        if (rows == 0 && isRowUpdate(op)) {
+            // Row changed (or vanished) after this was queued; the newer write stands
+            FileLogger.at(Level.WARN).op("offlineReplay").field("queuedOp", op).field("medicineId", m.getId())
+                    .log("Skipped queued mutation superseded by a newer write");
+            return;
+        }
+        FileLogger.at(Level.INFO).op("offlineReplay").field("queuedOp", op).field("medicineId", m.getId())
+                .log("Replayed queued mutation");
+        tryBroadcastRefresh();
+    }
+
+    private static String patchColumn(String field) throws SQLException {
+        return switch (field) {
+            case "name", "category", "price", "quantity", "expiry" -> field;
+            case "imagePath" -> "image_path";
+            default -> throw new SQLException("Unknown patch field: " + field, "HY000", 1);
+        };
+    }
+
+    private static void bindPatchField(PreparedStatement st, int idx, String field, Medicine m)
+            throws SQLException {
+        switch (field) {
+            case "name" -> st.setString(idx, safe(m.getName()));
+            case "category" -> st.setString(idx, safe(m.getCategory()));
+            case "price" -> st.setDouble(idx, m.getPrice());
+            case "quantity" -> st.setInt(idx, m.getQuantity());
+            case "expiry" -> st.setString(idx, safe(m.getExpiryDate()));
+            default -> setNullableString(st, idx, m.getImagePath());
+        }
     }
 
     private static String toJson(Medicine m) {
@@ -506,6 +973,16 @@ public class MedicineService {
         catch (Exception e) { return def; }
     }
 
+    private static long longVal(String s, String key, long def) {
+        int i = s.indexOf(key);
+        if (i < 0) return def;
+        i += key.length();
+        int j = i;
+        while (j < s.length() && "-0123456789".indexOf(s.charAt(j)) >= 0) j++;
+        try { return Long.parseLong(s.substring(i, j)); }
+        catch (Exception e) { return def; }
+    }
+
     private static double doubleVal(String s, String key, double def) {
         int i = s.indexOf(key);
         if (i < 0) return def;
@@ -543,15 +1020,15 @@ public class MedicineService {
        Socket broadcast (safe even if class not present)
        ======================= */
 
-    private void tryBroadcastRefresh() {
+    static void tryBroadcastRefresh() {
         try {
             Class<?> cls = Class.forName("net.MedicineSync");
             Object inst = cls.getMethod("getInstance").invoke(null);
-            cls.getMethod("broadcastRefresh").invoke(inst);
+            inst.getClass().getMethod("broadcastRefresh").invoke(inst); // instance is the server, not MedicineSync
         } catch (ClassNotFoundException noNet) {
             // sockets not on classpath – ignore
         } catch (Throwable t) {
-            FileLogger.warn("broadcastRefresh failed: " + t.getMessage());
+            FileLogger.warn("broadcastRefresh failed: {}", t.getMessage());
         }
     }
 }
@@ -0,0 +1,454 @@
+package services;
+
+import utils.ConfigManager;
+import utils.FileLogger;
+import utils.FileLogger.Level;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Durable queue of medicine mutations that could not reach the database.
+ *
+ * Every entry is appended to a write-ahead log (data/offline_wal.jsonl) with a
+ * sequence number and an idempotency key (e.g. "row:12") and is on disk
+ * before {@link #enqueue} returns; concurrent enqueues share one fsync. A newer
+ * entry with the same key replaces the older one, so retries of the same edit
+ * collapse; {@link #enqueueMerged} folds it into the older one instead. A
+ * background replayer applies entries strictly in sequence order
+ * once the DB accepts writes again, backing off on transient errors
+ * (SQLITE_BUSY/LOCKED, pool timeouts). Applied entries are acknowledged in the
+ * log, which is compacted once enough acks pile up.
+ */
+public final class OfflineQueue {
+
+    /** Applies one queued mutation to the DB; throws SQLException to retry or give up. */
+    @FunctionalInterface
+    public interface Applier {
+        void apply(String op, String payload) throws SQLException;
+    }
+
+    /** Point-in-time counters. drainPerSec covers the last replay burst. */
+    public record Metrics(int depth, long enqueued, long collapsed, long replayed,
+                          long retries, long dropped, double drainPerSec) {}
+
+    private static final Path DIR = Paths.get("data");
+    private static final Path WAL = DIR.resolve("offline_wal.jsonl");
+    private static final Path LEGACY = DIR.resolve("offline_queue.jsonl");
+
+    private static final int COMPACT_AFTER_ACKS = 256;
+
+    private static final OfflineQueue INSTANCE = new OfflineQueue();
+
+    public static OfflineQueue getInstance() { return INSTANCE; }
+
+    private final long retryBaseMs = Long.parseLong(ConfigManager.get("offline.retry.base.ms", "250"));
+    private final long retryMaxMs = Long.parseLong(ConfigManager.get("offline.retry.max.ms", "30000"));
+    private final boolean fsync = Boolean.parseBoolean(ConfigManager.get("offline.fsync", "true"));
+
+    // Pending entries by seq (replay order) and by key (collapsing); guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final TreeMap<Long, Entry> pending = new TreeMap<>();
+    private final Map<String, Entry> byKey = new HashMap<>();
+    private Entry inFlight; // being applied by the replayer; never merged into
+    private long nextSeq = 1;
+    private FileChannel channel;
+    private int acksSinceCompact;
+
+    // Group fsync: whoever holds syncLock forces everything written so far
+    private final Object syncLock = new Object();
+    private volatile long writtenSeq;
+    private long durableSeq;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile double drainPerSec;
+
+    private volatile Applier applier;
+    private Thread replayer;
+
+    private record Entry(long seq, long ts, String key, String op, String payload) {}
+
+    private OfflineQueue() {}
+
+    /* =======================
+       Startup
+       ======================= */
+
+    /** Recover the log, import the legacy queue file, and start replaying. Idempotent. */
+    public synchronized void start(Applier applier) {
+        if (replayer != null) return;
+        this.applier = applier;
+        lock.lock();
+        try {
+            Files.createDirectories(DIR);
+            recover();
+            channel = FileChannel.open(WAL, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            importLegacy();
+        } catch (IOException e) {
+            FileLogger.error("Offline queue unavailable: " + e.getMessage(), e);
+            return;
+        } finally {
+            lock.unlock();
+        }
+        replayer = new Thread(this::replayLoop, "OfflineQueue-Replayer");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    private void recover() throws IOException {
+        if (!Files.exists(WAL)) return;
+        Set<Long> acked = new HashSet<>();
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader r = Files.newBufferedReader(WAL, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (line.startsWith("{\"ack\":")) {
+                    long seq = longField(line, "\"ack\":");
+                    if (seq > 0) acked.add(seq);
+                    continue;
+                }
+                Entry e = parse(line);
+                if (e != null) entries.add(e); // a torn last line (crash mid-write) parses as null
+            }
+        }
+        for (Entry e : entries) {
+            nextSeq = Math.max(nextSeq, e.seq + 1);
+            if (!acked.contains(e.seq)) track(e);
+        }
+        for (long a : acked) nextSeq = Math.max(nextSeq, a + 1);
+        writtenSeq = durableSeq = nextSeq - 1;
+        if (!pending.isEmpty()) FileLogger.info("Offline queue recovered {} pending mutation(s).", pending.size());
+    }
+
+    // data/offline_queue.jsonl from older builds: {"ts":..,"op":"..","payload":{..}}
+    private void importLegacy() throws IOException {
+        if (!Files.exists(LEGACY)) return;
+        int n = 0;
+        for (String line : Files.readAllLines(LEGACY, StandardCharsets.UTF_8)) {
+            String op = stringField(line, "\"op\":");
+            String payload = payloadOf(line);
+            if (op == null || payload == null) continue;
+            append(op, MedicineService.queueKey(op, payload), payload, longField(line, "\"ts\":"));
+            n++;
+        }
+        sync(writtenSeq);
+        Files.move(LEGACY, LEGACY.resolveSibling("offline_queue.jsonl.imported"),
+                StandardCopyOption.REPLACE_EXISTING);
+        FileLogger.info("Offline queue imported {} legacy entr(ies), {} pending after collapsing.", n, pending.size());
+    }
+
+    /* =======================
+       Enqueue
+       ======================= */
+
+    /**
+     * Durably queue a mutation. Returns once it is on disk (fsync shared with
+     * concurrent callers). A pending entry with the same key is superseded.
+     */
+    public void enqueue(String op, String key, String payload) throws IOException {
+        enqueueMerged(op, key, pendingPayload -> payload);
+    }
+
+    /**
+     * Durably queue a mutation built from the pending entry with the same key:
+     * merge gets that entry's payload (null if there is none) and returns the
+     * payload to queue, which then replaces it. Runs under the queue lock, after
+     * any replay of this key in progress has finished, so what merge sees is
+     * exactly what has not been applied yet.
+     */
+    public void enqueueMerged(String op, String key, UnaryOperator<String> merge) throws IOException {
+        if (channel == null) throw new IOException("Offline queue not started");
+        long seq;
+        lock.lock();
+        try {
+            while (inFlight != null && inFlight.key.equals(key)) changed.awaitUninterruptibly();
+            Entry old = byKey.get(key);
+            seq = append(op, key, merge.apply(old == null ? null : old.payload),
+                    System.currentTimeMillis() / 1000);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        sync(seq);
+        FileLogger.at(Level.WARN).op("offlineEnqueue").field("key", key).field("seq", seq)
+                .field("depth", depth()).log("Queued mutation for replay");
+    }
+
+    // lock held
+    private long append(String op, String key, String payload, long ts) throws IOException {
+        Entry e = new Entry(nextSeq++, ts, key, op, payload);
+        String line = "{\"seq\":" + e.seq + ",\"ts\":" + e.ts + ",\"key\":" + quote(key)
+                + ",\"op\":" + quote(op) + ",\"payload\":" + payload + "}\n";
+        writeFully(line);
+        writtenSeq = e.seq;
+        enqueued.incrementAndGet();
+        track(e);
+        return e.seq;
+    }
+
+    // lock held (or single-threaded recovery)
+    private void track(Entry e) {
+        Entry old = byKey.put(e.key, e);
+        if (old != null) {
+            pending.remove(old.seq); // superseded; its line is dropped at the next compaction
+            collapsed.incrementAndGet();
+        }
+        pending.put(e.seq, e);
+    }
+
+    private void sync(long seq) throws IOException {
+        if (!fsync) return;
+        synchronized (syncLock) {
+            if (durableSeq >= seq) return; // someone else's force() already covered us
+            long upTo = writtenSeq;
+            channel.force(false);
+            durableSeq = upTo;
+        }
+    }
+
+    private void writeFully(String s) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) channel.write(buf);
+    }
+
+    /* =======================
+       Replay
+       ======================= */
+
+    private void replayLoop() {
+        long backoff = retryBaseMs;
+        long burstStart = 0, burstCount = 0;
+        while (true) {
+            Entry head;
+            lock.lock();
+            try {
+                while (pending.isEmpty()) {
+                    if (burstCount > 0) {
+                        reportBurst(burstStart, burstCount);
+                        burstCount = 0;
+                    }
+                    compactIfNeeded(true);
+                    changed.awaitUninterruptibly();
+                }
+                head = pending.firstEntry().getValue();
+                inFlight = head;
+            } finally {
+                lock.unlock();
+            }
+            if (burstCount == 0) burstStart = System.nanoTime();
+
+            try {
+                applier.apply(head.op, head.payload);
+                replayed.incrementAndGet();
+                burstCount++;
+                backoff = retryBaseMs;
+            } catch (SQLException e) {
+                if (isTransient(e)) {
+                    retries.incrementAndGet();
+                    release(head);
+                    FileLogger.at(Level.WARN).op("offlineReplay").field("key", head.key)
+                            .field("retryInMs", backoff).log("Replay deferred: {}", e.getMessage());
+                    sleepInterruptibly(backoff + ThreadLocalRandom.current().nextLong(backoff / 4 + 1));
+                    backoff = Math.min(retryMaxMs, backoff * 2);
+                    continue;
+                }
+                // Will never succeed (constraint, bad data): don't block everything behind it
+                dropped.incrementAndGet();
+                FileLogger.at(Level.ERROR).op("offlineReplay").field("key", head.key)
+                        .field("payload", head.payload).log("Dropping unreplayable mutation", e);
+            } catch (RuntimeException e) {
+                release(head);
+                FileLogger.error("Offline replay failed: " + e.getMessage(), e);
+                sleepInterruptibly(retryMaxMs);
+                continue;
+            }
+
+            try {
+                ack(head);
+            } catch (IOException e) {
+                FileLogger.error("Offline queue could not record replay of " + head.key + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void ack(Entry e) throws IOException {
+        long seq;
+        lock.lock();
+        try {
+            // Forget it first: even if the ack can't be written, this run must not apply it twice
+            if (pending.remove(e.seq) != null) byKey.remove(e.key, e);
+            releaseLocked(e);
+            seq = e.seq;
+            writeFully("{\"ack\":" + e.seq + "}\n");
+            acksSinceCompact++;
+            compactIfNeeded(false);
+        } finally {
+            lock.unlock();
+        }
+        sync(seq); // a lost ack would replay a non-idempotent add
+    }
+
+    // Not applied after all (will be retried): merges may fold into it again
+    private void release(Entry e) {
+        lock.lock();
+        try {
+            releaseLocked(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // lock held
+    private void releaseLocked(Entry e) {
+        if (inFlight == e) {
+            inFlight = null;
+            changed.signalAll();
+        }
+    }
+
+    // lock held. Rewrite the log with just the pending entries.
+    private void compactIfNeeded(boolean idle) {
+        if (acksSinceCompact == 0 || (!idle && acksSinceCompact < COMPACT_AFTER_ACKS)) return;
+        Path tmp = WAL.resolveSibling("offline_wal.jsonl.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder sb = new StringBuilder();
+            for (Entry e : pending.values()) {
+                sb.append("{\"seq\":").append(e.seq).append(",\"ts\":").append(e.ts)
+                  .append(",\"key\":").append(quote(e.key)).append(",\"op\":").append(quote(e.op))
+                  .append(",\"payload\":").append(e.payload).append("}\n");
+            }
+            // Keep the highest seq on record so numbering never restarts below it
+            if (pending.isEmpty() && nextSeq > 1) sb.append("{\"ack\":").append(nextSeq - 1).append("}\n");
+            ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) out.write(buf);
+            out.force(true);
+        } catch (IOException e) {
+            FileLogger.warn("Offline queue compaction failed: {}", e.getMessage());
+            return;
+        }
+        synchronized (syncLock) {
+            try {
+                channel.close();
+                Files.move(tmp, WAL, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                FileLogger.warn("Offline queue compaction failed: {}", e.getMessage());
+            } finally {
+                try {
+                    channel = FileChannel.open(WAL, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND);
+                } catch (IOException e) {
+                    FileLogger.error("Offline queue could not reopen its log: " + e.getMessage(), e);
+                }
+            }
+            durableSeq = writtenSeq;
+        }
+        acksSinceCompact = 0;
+    }
+
+    private void reportBurst(long startNanos, long count) {
+        double secs = Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+        drainPerSec = count / secs;
+        FileLogger.at(Level.INFO).op("offlineReplay").field("replayed", count)
+                .field("drainPerSec", Math.round(drainPerSec)).field("depth", 0)
+                .log("Offline queue drained");
+    }
+
+    // SQLITE_CONSTRAINT (19), MISMATCH (20), generic SQL error (1) won't fix themselves
+    private static boolean isTransient(SQLException e) {
+        int code = e.getErrorCode() & 0xff; // extended codes carry the primary code in the low byte
+        return code != 1 && code != 19 && code != 20;
+    }
+
+    private static void sleepInterruptibly(long ms) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(ms);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* =======================
+       Metrics
+       ======================= */
+
+    public int depth() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Metrics metrics() {
+        return new Metrics(depth(), enqueued.get(), collapsed.get(), replayed.get(),
+                retries.get(), dropped.get(), drainPerSec);
+    }
+
+    /* =======================
+       Line format helpers
+       ======================= */
+
+    private static Entry parse(String line) {
+        if (!line.endsWith("}")) return null;
+        long seq = longField(line, "\"seq\":");
+        String key = stringField(line, "\"key\":");
+        String op = stringField(line, "\"op\":");
+        String payload = payloadOf(line);
+        if (seq <= 0 || key == null || op == null || payload == null) return null;
+        return new Entry(seq, longField(line, "\"ts\":"), key, op, payload);
+    }
+
+    // payload is always the last field: everything up to the closing brace
+    private static String payloadOf(String line) {
+        int i = line.indexOf("\"payload\":");
+        int end = line.lastIndexOf('}');
+        if (i < 0 || end <= i) return null;
+        String p = line.substring(i + "\"payload\":".length(), end).trim();
+        return p.isEmpty() ? null : p;
+    }
+
+    private static long longField(String s, String key) {
+        int i = s.indexOf(key);
+        if (i < 0) return 0;
+        i += key.length();
+        int j = i;
+        while (j < s.length() && "-0123456789".indexOf(s.charAt(j)) >= 0) j++;
+        try { return Long.parseLong(s.substring(i, j)); }
+        catch (NumberFormatException e) { return 0; }
+    }
+
+    // keys and ops are plain ASCII identifiers; no escapes to handle
+    private static String stringField(String s, String key) {
+        int i = s.indexOf(key);
+        if (i < 0) return null;
+        int start = s.indexOf('"', i + key.length());
+        int end = start < 0 ? -1 : s.indexOf('"', start + 1);
+        return end < 0 ? null : s.substring(start + 1, end);
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,328 @@
+package services;
+
+import models.OrderItem;
+import utils.ConfigManager;
+import utils.DBHelper;
+import utils.FileLogger;
+import utils.FileLogger.Level;
+
+import java.sql.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Places orders: one {@code orders} header plus its {@code order_items} lines,
+ * with a conditional stock decrement per line. Each order is all-or-nothing.
+ *
+ * Orders are written by a single thread with group commit: it collects what
+ * arrives within order.batch.ms (up to order.batch.max orders), writes them in
+ * one BEGIN IMMEDIATE transaction with a savepoint per order, and commits once,
+ * so concurrent checkouts share one fsync and one trip through the write lock.
+ *
+ * No UI here: callers get an {@link OrderResult} and decide what to show.
+ */
+public final class OrderEngine {
+
+    private static final OrderEngine INSTANCE = new OrderEngine();
+
+    public static OrderEngine getInstance() { return INSTANCE; }
+
+    private static final String SQL_HEADER =
+            "INSERT INTO orders(user_id, total_price, order_date) VALUES(?, ?, ?) RETURNING id";
+    private static final String SQL_LINE = """
+            INSERT INTO order_items(header_id, user_id, medicine_id, quantity, total_price, order_date)
+            VALUES(?, ?, ?, ?, ?, ?)
+            """;
+    // Units held by other carts' live reservations are not for sale
+    private static final String SQL_TAKE_STOCK = """
+            UPDATE medicines
+            SET quantity = quantity - ?,
+                last_updated = CAST(strftime('%s','now') AS INTEGER)
+            WHERE serial_number = ?
+              AND quantity - (SELECT COALESCE(SUM(r.quantity), 0) FROM stock_reservations r
+                              WHERE r.medicine_id = medicines.serial_number AND r.expires_at > ?) >= ?
+            """;
+    private static final String SQL_CONVERT_HOLD = "DELETE FROM stock_reservations WHERE id = ? AND medicine_id = ?";
+    private static final String SQL_STOCK = """
+            SELECT m.quantity - (SELECT COALESCE(SUM(r.quantity), 0) FROM stock_reservations r
+                                 WHERE r.medicine_id = m.serial_number AND r.expires_at > ?)
+            FROM medicines m WHERE m.serial_number = ?
+            """;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final long batchWindowNanos =
+            TimeUnit.MICROSECONDS.toNanos((long) (Double.parseDouble(ConfigManager.get("order.batch.ms", "2")) * 1000));
+    private final int batchMax = Math.max(1, Integer.parseInt(ConfigManager.get("order.batch.max", "64")));
+
+    private OrderEngine() {
+        Thread writer = new Thread(this::runWriter, "OrderEngine-Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /* =======================
+       Value types
+       ======================= */
+
+    /**
+     * One order line; lineTotal is what the customer was shown. A line with a
+     * reservationId (see StockReservations) converts that hold into the sale.
+     */
+    public record Line(int medicineId, int quantity, double lineTotal, long reservationId) {
+
+        public Line(int medicineId, int quantity, double lineTotal) {
+            this(medicineId, quantity, lineTotal, 0);
+        }
+
+        public static Line of(OrderItem item) {
+            return new Line(item.getMedicineId(), item.getQuantity(), item.getTotalPrice(), item.getReservationId());
+        }
+    }
+
+    /** Outcome of {@link #submit}. */
+    public record OrderResult(Status status, int orderId, String orderDate, double total,
+                              int medicineId, int available, String message) {
+
+        public enum Status {
+            PLACED,       // committed; orderId is the orders.id
+            OUT_OF_STOCK, // medicineId has only `available` left (nothing was written)
+            INVALID,      // bad input, nothing was written
+            FAILED        // database error, nothing was written
+        }
+
+        public boolean isPlaced() { return status == Status.PLACED; }
+
+        static OrderResult placed(int orderId, String orderDate, double total) {
+            return new OrderResult(Status.PLACED, orderId, orderDate, total, 0, 0, "Order placed");
+        }
+
+        static OrderResult outOfStock(int medicineId, int available) {
+            return new OrderResult(Status.OUT_OF_STOCK, 0, null, 0, medicineId, available,
+                    "Not enough stock for medicine " + medicineId + " (" + available + " left)");
+        }
+
+        static OrderResult invalid(String message) {
+            return new OrderResult(Status.INVALID, 0, null, 0, 0, 0, message);
+        }
+
+        static OrderResult failed(String message) {
+            return new OrderResult(Status.FAILED, 0, null, 0, 0, 0, message);
+        }
+    }
+
+    /* =======================
+       Placement
+       ======================= */
+
+    public CompletableFuture<OrderResult> submitItems(int userId, List<OrderItem> items) {
+        List<Line> lines = new ArrayList<>(items == null ? 0 : items.size());
+        if (items != null) {
+            for (OrderItem it : items) lines.add(Line.of(it));
+        }
+        return submit(userId, lines);
+    }
+
+    /**
+     * Queue an order for the writer thread. The future completes once the
+     * batch holding it has committed (or with the reason it was not placed);
+     * it never completes exceptionally.
+     */
+    public CompletableFuture<OrderResult> submit(int userId, List<Line> lines) {
+        if (userId <= 0) return done(OrderResult.invalid("You must be logged in to place an order."));
+        if (lines == null || lines.isEmpty()) return done(OrderResult.invalid("The order has no items."));
+        double total = 0;
+        for (Line l : lines) {
+            if (l.medicineId() <= 0 || l.quantity() <= 0) {
+                return done(OrderResult.invalid("Invalid item in cart. Please check your selection."));
+            }
+            total += l.lineTotal();
+        }
+        String orderDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+        Pending p = new Pending(userId, List.copyOf(lines), total, orderDate,
+                System.nanoTime(), new CompletableFuture<>());
+        queue.add(p);
+        return p.result();
+    }
+
+    /** Blocking form of {@link #submit}; not for the FX thread. */
+    public OrderResult place(int userId, List<Line> lines) {
+        return submit(userId, lines).join();
+    }
+
+    private static CompletableFuture<OrderResult> done(OrderResult r) {
+        return CompletableFuture.completedFuture(r);
+    }
+
+    /* =======================
+       Writer thread (group commit)
+       ======================= */
+
+    private record Pending(int userId, List<Line> lines, double total, String orderDate,
+                           long t0, CompletableFuture<OrderResult> result) {}
+
+    private void runWriter() {
+        List<Pending> batch = new ArrayList<>(batchMax);
+        int lastBatch = 0;
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchMax - batch.size());
+                // Under concurrent checkouts, give the ones right behind a chance to share the
+                // commit; a lone checkout on a quiet terminal doesn't pay for the window
+                long deadline = System.nanoTime() + batchWindowNanos;
+                while (batch.size() < batchMax && (batch.size() > 1 || lastBatch > 1)) {
+                    long left = deadline - System.nanoTime();
+                    Pending more = (left > 0) ? queue.poll(left, TimeUnit.NANOSECONDS) : null;
+                    if (more == null) break;
+                    batch.add(more);
+                    queue.drainTo(batch, batchMax - batch.size());
+                }
+                lastBatch = batch.size();
+                commitBatch(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable t) {
+                FileLogger.at(Level.ERROR).op("placeOrder").log("Order writer failed", t);
+                for (Pending p : batch) p.result().complete(OrderResult.failed("Order could not be placed: " + t));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * One BEGIN IMMEDIATE ... COMMIT (one fsync) for the whole batch. Each order
+     * runs inside its own savepoint, so a rejected or failing order is undone
+     * without touching the others. Futures complete only after COMMIT.
+     */
+    private void commitBatch(List<Pending> batch) {
+        OrderResult[] results = new OrderResult[batch.size()];
+        long tBatch = System.nanoTime();
+        try (Connection conn = DBHelper.getConnection();
+             Statement tx = conn.createStatement()) {
+            // IMMEDIATE: take the write lock now rather than upgrading (and possibly failing) mid-batch
+            tx.execute("BEGIN IMMEDIATE");
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    Pending p = batch.get(i);
+                    tx.execute("SAVEPOINT one_order");
+                    try {
+                        results[i] = write(conn, p.userId(), p.lines(), p.total(), p.orderDate());
+                    } catch (SQLException e) {
+                        FileLogger.at(Level.ERROR).op("placeOrder").field("userId", p.userId()).log("DB error", e);
+                        results[i] = OrderResult.failed("Database error while placing order: " + e.getMessage());
+                    }
+                    if (!results[i].isPlaced()) tx.execute("ROLLBACK TO one_order");
+                    tx.execute("RELEASE one_order");
+                }
+                tx.execute("COMMIT");
+            } catch (SQLException | RuntimeException e) {
+                try { tx.execute("ROLLBACK"); } catch (SQLException ignored) {}
+                throw e;
+            }
+        } catch (SQLException e) {
+            FileLogger.at(Level.ERROR).op("placeOrder").field("batch", batch.size()).latencySince(tBatch)
+                    .log("DB error", e);
+            OrderResult failed = OrderResult.failed("Database error while placing order: " + e.getMessage());
+            for (Pending p : batch) p.result().complete(failed);
+            return;
+        }
+
+        boolean anyPlaced = false;
+        for (int i = 0; i < batch.size(); i++) {
+            Pending p = batch.get(i);
+            OrderResult r = results[i];
+            if (r.isPlaced()) {
+                anyPlaced = true;
+                List<Long> holds = new ArrayList<>();
+                for (Line l : p.lines()) {
+                    if (l.reservationId() > 0) holds.add(l.reservationId());
+                }
+                if (!holds.isEmpty()) StockReservations.getInstance().converted(holds);
+                FileLogger.at(Level.INFO).op("placeOrder").field("orderId", r.orderId())
+                        .field("userId", p.userId()).field("lines", p.lines().size())
+                        .field("batch", batch.size()).latencySince(p.t0())
+                        .log("Placed order {}", r.orderId());
+            } else {
+                FileLogger.at(Level.INFO).op("placeOrder").field("userId", p.userId())
+                        .field("medicineId", r.medicineId()).latencySince(p.t0())
+                        .log("Order rejected: {}", r.message());
+            }
+            p.result().complete(r);
+        }
+        if (anyPlaced) MedicineService.tryBroadcastRefresh(); // stock changed
+    }
+
+    // Inside the order's savepoint; a non-PLACED result means the caller rolls it back
+    private static OrderResult write(Connection conn, int userId, List<Line> lines,
+                                     double total, String orderDate) throws SQLException {
+        long now = System.currentTimeMillis();
+        // Stock first: a short line aborts before anything else is written
+        try (PreparedStatement convert = DBHelper.prepareCached(conn, SQL_CONVERT_HOLD);
+             PreparedStatement take = DBHelper.prepareCached(conn, SQL_TAKE_STOCK)) {
+            for (int i = 0; i < lines.size(); i++) {
+                Line l = lines.get(i);
+                if (l.reservationId() > 0) {
+                    // The hold becomes this sale (even if it just expired, as long as the stock is still free)
+                    convert.setLong(1, l.reservationId());
+                    convert.setInt(2, l.medicineId());
+                    convert.executeUpdate();
+                }
+                take.setInt(1, l.quantity());
+                take.setInt(2, l.medicineId());
+                take.setLong(3, now);
+                take.setInt(4, l.quantity());
+                if (take.executeUpdate() == 0) {
+                    // Report stock as it was before this order (earlier lines may share the medicine)
+                    int available = stockOf(conn, l.medicineId(), now);
+                    for (Line earlier : lines.subList(0, i)) {
+                        if (earlier.medicineId() == l.medicineId()) available += earlier.quantity();
+                    }
+                    return OrderResult.outOfStock(l.medicineId(), available);
+                }
+            }
+        }
+
+        int orderId;
+        try (PreparedStatement header = DBHelper.prepareCached(conn, SQL_HEADER)) {
+            header.setInt(1, userId);
+            header.setDouble(2, total);
+            header.setString(3, orderDate);
+            try (ResultSet rs = header.executeQuery()) {
+                if (!rs.next()) throw new SQLException("orders insert returned no id");
+                orderId = rs.getInt(1);
+            }
+        }
+
+        try (PreparedStatement line = DBHelper.prepareCached(conn, SQL_LINE)) {
+            for (Line l : lines) {
+                line.setInt(1, orderId);
+                line.setInt(2, userId);
+                line.setInt(3, l.medicineId());
+                line.setInt(4, l.quantity());
+                line.setDouble(5, l.lineTotal());
+                line.setString(6, orderDate);
+                line.addBatch();
+            }
+            line.executeBatch();
+        }
+        return OrderResult.placed(orderId, orderDate, total);
+    }
+
+    // Stock not held by other carts, inside the transaction; 0 if the medicine is gone
+    private static int stockOf(Connection conn, int medicineId, long now) throws SQLException {
+        try (PreparedStatement ps = DBHelper.prepareCached(conn, SQL_STOCK)) {
+            ps.setLong(1, now);
+            ps.setInt(2, medicineId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? Math.max(0, rs.getInt(1)) : 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package services;
+
+import org.mindrot.jbcrypt.BCrypt;
+import utils.AppException;
+import utils.ConfigManager;
+import utils.FileLogger;
+import utils.FileLogger.Level;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs BCrypt work (and the small lookups around it) on its own bounded pool,
+ * so a burst of logins can't starve the common ForkJoinPool or the FX thread.
+ *
+ * bcrypt.threads workers take tasks from a queue of bcrypt.queue slots. When
+ * the queue is full a task is refused on the spot with {@link BusyException}
+ * instead of waiting behind work that would take seconds to drain; callers turn
+ * that into a "busy, retry" answer. Queue wait and hash time are recorded per
+ * task and summed in {@link #stats()}.
+ *
+ * The cost factor is calibrated once at startup, as the pool's first task: the
+ * highest cost whose hash fits bcrypt.budget.ms on this host, clamped to
+ * bcrypt.cost.min..bcrypt.cost.max (bcrypt.cost pins it). Hashes made before
+ * calibration finishes use the minimum; {@link #needsRehash} then flags any
+ * stored hash whose cost differs so logins can upgrade it.
+ */
+public final class PasswordHasher {
+
+    /** Admission refused: every worker is busy and the queue is full. */
+    public static final class BusyException extends AppException {
+        private static final long serialVersionUID = 1L;
+
+        BusyException() { super("The system is busy right now. Please retry in a moment."); }
+    }
+
+    /** Totals since startup; times in milliseconds. */
+    public record Stats(long completed, long rejected, int queued,
+                        double avgQueueMs, double avgHashMs, double maxQueueMs, int cost) {}
+
+    private static final PasswordHasher INSTANCE = new PasswordHasher();
+
+    public static PasswordHasher getInstance() { return INSTANCE; }
+
+    private final ThreadPoolExecutor pool;
+    private final int queueSize;
+
+    private final int minCost = clampCost(Integer.parseInt(ConfigManager.get("bcrypt.cost.min", "10")));
+    private final int maxCost = Math.max(minCost, clampCost(Integer.parseInt(ConfigManager.get("bcrypt.cost.max", "14"))));
+    private volatile int cost = minCost;
+    private volatile boolean calibrated;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    private PasswordHasher() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        // Leave cores for the UI and the DB writer; BCrypt is pure CPU
+        int threads = Math.max(1, Integer.parseInt(
+                ConfigManager.get("bcrypt.threads", String.valueOf(Math.max(1, cpus / 2)))));
+        queueSize = Math.max(1, Integer.parseInt(ConfigManager.get("bcrypt.queue", "32")));
+
+        pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new ThreadFactory() {
+                    private int n;
+                    @Override public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "PasswordHasher-" + (++n));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+        pool.execute(this::calibrate);
+    }
+
+    /* =======================
+       Async API
+       ======================= */
+
+    /** Run task on the pool; the future fails with BusyException if it wasn't admitted. */
+    public <T> CompletableFuture<T> submit(String op, Callable<T> task) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        try {
+            pool.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    f.complete(task.call());
+                } catch (Throwable t) {
+                    f.completeExceptionally(t);
+                } finally {
+                    record(op, start - queuedAt, System.nanoTime() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            FileLogger.at(Level.WARN).op(op).field("queued", pool.getQueue().size())
+                    .log("Password work rejected, pool busy");
+            f.completeExceptionally(new BusyException());
+        }
+        return f;
+    }
+
+    /**
+     * Run task only if the pool has room to spare (queue under half full); otherwise
+     * skip it quietly. For work that can wait for a later chance, like rehashing.
+     */
+    public boolean background(String op, Runnable task) {
+        if (pool.getQueue().size() * 2 >= queueSize) return false;
+        submit(op, () -> { task.run(); return null; })
+                .exceptionally(t -> null); // busy or failed: the next opportunity retries
+        return true;
+    }
+
+    /** True if a failed future's exception (possibly wrapped) is a refused admission. */
+    public static boolean isBusy(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) t = t.getCause();
+        return t instanceof BusyException;
+    }
+
+    public CompletableFuture<String> hash(String password) {
+        return submit("hash", () -> hashInline(password));
+    }
+
+    public CompletableFuture<Boolean> check(String password, String hash) {
+        return submit("check", () -> checkInline(password, hash));
+    }
+
+    /* =======================
+       Blocking API (service code)
+       ======================= */
+
+    /** Hash on the pool and wait; runs inline when already on a hasher thread. Throws BusyException. */
+    public String hashNow(String password) {
+        if (onWorker()) return hashInline(password);
+        return await(hash(password));
+    }
+
+    /** Check on the pool and wait; runs inline when already on a hasher thread. Throws BusyException. */
+    public boolean checkNow(String password, String hash) {
+        if (onWorker()) return checkInline(password, hash);
+        return await(check(password, hash));
+    }
+
+    /** True if hash isn't a BCrypt hash we can read, or was made with a different cost than the calibrated one. */
+    public boolean needsRehash(String hash) {
+        if (hash == null || hash.length() < 7 || !hash.startsWith("$2a$") || hash.charAt(6) != '$') return true;
+        if (!calibrated) return false; // don't churn hashes towards a provisional cost
+        try {
+            return Integer.parseInt(hash.substring(4, 6)) != cost;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    public int cost() { return cost; }
+
+    public Stats stats() {
+        long done = completed.sum();
+        double div = Math.max(1, done) * 1_000_000.0;
+        return new Stats(done, rejected.sum(), pool.getQueue().size(),
+                queueNanos.sum() / div, hashNanos.sum() / div, maxQueueNanos.get() / 1_000_000.0, cost);
+    }
+
+    /* =======================
+       Internals
+       ======================= */
+
+    private String hashInline(String password) {
+        return BCrypt.hashpw(password, BCrypt.gensalt(cost));
+    }
+
+    // Each cost step doubles the work: time the minimum cost, then take the largest step that fits the budget
+    private void calibrate() {
+        try {
+            String pinned = ConfigManager.get("bcrypt.cost", "");
+            if (!pinned.isBlank()) {
+                cost = clampCost(Integer.parseInt(pinned.trim()));
+                FileLogger.info("BCrypt cost pinned at {}", cost);
+                return;
+            }
+            double budgetMs = Double.parseDouble(ConfigManager.get("bcrypt.budget.ms", "250"));
+            BCrypt.hashpw("calibrate", BCrypt.gensalt(4)); // warm up the JIT
+            double ms = timeHash(minCost);
+            int c = minCost;
+            while (c < maxCost && ms * 2 <= budgetMs) {
+                c++;
+                ms *= 2;
+            }
+            // Extrapolation can be off on throttled CPUs: measure the pick and step down if it's over
+            if (c > minCost) {
+                ms = timeHash(c);
+                while (c > minCost && ms > budgetMs) {
+                    c--;
+                    ms /= 2;
+                }
+            }
+            cost = c;
+            FileLogger.at(Level.INFO).op("bcryptCalibrate").field("cost", c).field("hashMs", Math.round(ms))
+                    .field("budgetMs", Math.round(budgetMs)).log("BCrypt cost calibrated");
+        } catch (RuntimeException e) {
+            FileLogger.warn("BCrypt calibration failed, using cost {}: {}", cost, e.getMessage());
+        } finally {
+            calibrated = true;
+        }
+    }
+
+    private static double timeHash(int cost) {
+        long t0 = System.nanoTime();
+        BCrypt.hashpw("calibrate", BCrypt.gensalt(cost));
+        return (System.nanoTime() - t0) / 1_000_000.0;
+    }
+
+    private static int clampCost(int c) {
+        return Math.max(4, Math.min(31, c)); // jBCrypt's range
+    }
+
+    private static boolean checkInline(String password, String hash) {
+        if (password == null || hash == null) return false;
+        try {
+            return BCrypt.checkpw(password, hash);
+        } catch (IllegalArgumentException e) { // not a BCrypt hash
+            return false;
+        }
+    }
+
+    private static boolean onWorker() {
+        return Thread.currentThread().getName().startsWith("PasswordHasher-");
+    }
+
+    private static <T> T await(CompletableFuture<T> f) {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new AppException("Password processing failed.", e.getCause());
+        }
+    }
+
+    private void record(String op, long waitNanos, long runNanos) {
+        completed.increment();
+        queueNanos.add(waitNanos);
+        hashNanos.add(runNanos);
+        maxQueueNanos.accumulateAndGet(waitNanos, Math::max);
+        FileLogger.at(Level.DEBUG).op(op)
+                .field("queueMs", waitNanos / 1_000_000)
+                .field("hashMs", runNanos / 1_000_000)
+                .log("Password work done");
+    }
+}
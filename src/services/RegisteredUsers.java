@@ -0,0 +1,152 @@
+package services;
+
+import utils.ConfigManager;
+import utils.DBHelper;
+import utils.FileLogger;
+import utils.FileLogger.Level;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * In-memory "definitely not registered" answers for emails and phones, so
+ * signup validation and the reset pages don't query SQLite per keystroke.
+ *
+ * Two Bloom filters over normalized values (email trimmed and lower-cased,
+ * phone reduced to its digits) are built from the users table on a background
+ * thread at startup. Signups and profile updates add to them as they commit.
+ * Every users.filter.refresh.sec the thread checks the table's row count and
+ * high-water marks and rebuilds if they moved, which picks up other terminals'
+ * signups and drops values no longer in use. Until the first build completes
+ * every answer is "maybe" and callers go to the DB.
+ */
+public final class RegisteredUsers {
+
+    private static final RegisteredUsers INSTANCE = new RegisteredUsers();
+
+    public static RegisteredUsers getInstance() { return INSTANCE; }
+
+    private static final double FPP = 0.01;
+    private static final String SQL_MARK =
+            "SELECT COUNT(*), COALESCE(MAX(id), 0), COALESCE(MAX(updated_at), 0) FROM users";
+    private static final String SQL_ALL = "SELECT email, phone FROM users";
+
+    private record Filters(BloomFilter emails, BloomFilter phones) {}
+
+    private record Mark(long rows, long maxId, long maxUpdated) {}
+
+    private final long refreshMs = (long) (Double.parseDouble(ConfigManager.get("users.filter.refresh.sec", "60")) * 1000);
+
+    private volatile Filters current;
+    private Mark builtAt;                  // rebuild thread only
+    private List<String[]> sinceScan;      // adds during a rebuild; guarded by this
+
+    private RegisteredUsers() {
+        Thread t = new Thread(this::runRefresh, "RegisteredUsers-Refresh");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /* =======================
+       Queries
+       ======================= */
+
+    /** False only if no user has this email. */
+    public boolean mightHaveEmail(String email) {
+        Filters f = current;
+        return f == null || f.emails().mightContain(normalizeEmail(email));
+    }
+
+    /** False only if no user has this phone. */
+    public boolean mightHavePhone(String phone) {
+        Filters f = current;
+        return f == null || f.phones().mightContain(normalizePhone(phone));
+    }
+
+    /* =======================
+       Maintenance
+       ======================= */
+
+    /** A committed signup or profile change; either value may be null. */
+    public synchronized void added(String email, String phone) {
+        Filters f = current;
+        if (f != null) put(f, email, phone);
+        if (sinceScan != null) sinceScan.add(new String[]{email, phone});
+    }
+
+    private void runRefresh() {
+        while (true) {
+            try {
+                refresh();
+                Thread.sleep(refreshMs);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                FileLogger.warn("Registered users filter refresh failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void refresh() {
+        long t0 = System.nanoTime();
+        synchronized (this) { sinceScan = new ArrayList<>(); }
+        Filters fresh = null;
+        Mark mark = null;
+        try (Connection conn = DBHelper.getReadConnection()) {
+            try (PreparedStatement ps = DBHelper.prepareCached(conn, SQL_MARK);
+                 ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                mark = new Mark(rs.getLong(1), rs.getLong(2), rs.getLong(3));
+            }
+            if (mark.equals(builtAt)) return; // nothing moved
+            // Room to grow before the next rebuild without losing the target rate
+            int expected = (int) Math.min(Integer.MAX_VALUE / 2, Math.max(1024, mark.rows() * 2));
+            fresh = new Filters(new BloomFilter(expected, FPP), new BloomFilter(expected, FPP));
+            try (PreparedStatement ps = DBHelper.prepareCached(conn, SQL_ALL);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) put(fresh, rs.getString(1), rs.getString(2));
+            }
+        } catch (SQLException e) {
+            FileLogger.at(Level.WARN).op("usersFilter").log("DB error: {}", e.getMessage());
+            fresh = null;
+        } finally {
+            synchronized (this) {
+                if (fresh != null) {
+                    for (String[] a : sinceScan) put(fresh, a[0], a[1]); // committed after our read began
+                    current = fresh;
+                }
+                sinceScan = null;
+            }
+        }
+        if (fresh != null) {
+            builtAt = mark;
+            FileLogger.at(Level.DEBUG).op("usersFilter").field("rows", mark.rows()).latencySince(t0)
+                    .log("Registered users filter rebuilt");
+        }
+    }
+
+    private static void put(Filters f, String email, String phone) {
+        if (email != null) f.emails().add(normalizeEmail(email));
+        if (phone != null) f.phones().add(normalizePhone(phone));
+    }
+
+    static String normalizeEmail(String email) {
+        return email == null ? "" : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static String normalizePhone(String phone) {
+        if (phone == null) return "";
+        StringBuilder sb = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,287 @@
+package services;
+
+import utils.ConfigManager;
+import utils.DBHelper;
+import utils.FileLogger;
+import utils.FileLogger.Level;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
+
+/**
+ * Short-lived stock holds taken when an item goes into a cart.
+ *
+ * A reservation is a row in stock_reservations with an expiry (reservation.ttl.min);
+ * stock itself is only taken at checkout, when OrderEngine converts the hold
+ * into an order line. Until then the held units are not available to anyone
+ * else: a reservation is granted only if quantity minus every live hold covers
+ * it, checked in the same INSERT, so two terminals cannot both get the last unit.
+ *
+ * Holds are mirrored in memory (per-medicine totals), so available-to-sell is
+ * answered without a query and hopeless requests never reach the DB; listeners
+ * hear which medicine's holds moved so screens can show it. Expired
+ * holds are released by a timer wheel; rows from other processes are picked up
+ * by a periodic reload. An expired row stops counting even before it is deleted.
+ */
+public final class StockReservations {
+
+    /** A live hold; expiresAt is epoch millis. */
+    public record Reservation(long id, int medicineId, int userId, int quantity, long expiresAt) {}
+
+    /** Outcome of {@link #reserve}: the hold, or null with what could be had instead. */
+    public record ReserveResult(Reservation reservation, int available) {
+        public boolean isReserved() { return reservation != null; }
+    }
+
+    private static final StockReservations INSTANCE = new StockReservations();
+
+    public static StockReservations getInstance() { return INSTANCE; }
+
+    private static final long TICK_MS = 1000;
+    private static final long RELOAD_MS = 30_000;
+
+    private static final String SQL_RESERVE = """
+            INSERT INTO stock_reservations(medicine_id, user_id, quantity, created_at, expires_at)
+            SELECT m.serial_number, ?, ?, ?, ?
+            FROM medicines m
+            WHERE m.serial_number = ?
+              AND m.quantity - (SELECT COALESCE(SUM(r.quantity), 0) FROM stock_reservations r
+                                WHERE r.medicine_id = m.serial_number AND r.expires_at > ?) >= ?
+            RETURNING id
+            """;
+    private static final String SQL_AVAILABLE = """
+            SELECT m.quantity - (SELECT COALESCE(SUM(r.quantity), 0) FROM stock_reservations r
+                                 WHERE r.medicine_id = m.serial_number AND r.expires_at > ?)
+            FROM medicines m WHERE m.serial_number = ?
+            """;
+    private static final String SQL_DELETE = "DELETE FROM stock_reservations WHERE id = ?";
+    private static final String SQL_PURGE = "DELETE FROM stock_reservations WHERE expires_at <= ?";
+    private static final String SQL_LIVE =
+            "SELECT id, medicine_id, user_id, quantity, expires_at FROM stock_reservations WHERE expires_at > ?";
+
+    private final long ttlMs = (long) (Double.parseDouble(ConfigManager.get("reservation.ttl.min", "15")) * 60_000);
+
+    // Live holds and per-medicine totals; guarded by this
+    private final Map<Long, Reservation> live = new HashMap<>();
+    private final Map<Integer, Integer> heldByMedicine = new HashMap<>();
+    private final TimerWheel<Long> expiries = new TimerWheel<>(TICK_MS, 512, System.currentTimeMillis());
+    private final List<IntConsumer> listeners = new CopyOnWriteArrayList<>();
+
+    private StockReservations() {
+        Thread t = new Thread(this::runExpiry, "StockReservations-Expiry");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /* =======================
+       Queries (memory only)
+       ======================= */
+
+    /** Units held by live reservations (all terminals, as of the last reload). */
+    public synchronized int held(int medicineId) {
+        return heldByMedicine.getOrDefault(medicineId, 0);
+    }
+
+    /**
+     * Available to sell: catalog quantity minus live holds, from memory.
+     * -1 when the catalog doesn't know the medicine (not loaded yet).
+     */
+    public int available(int medicineId) {
+        MedicineCatalog.Item it = MedicineCatalog.getInstance().snapshot().get(medicineId);
+        return (it == null) ? -1 : Math.max(0, it.quantity() - held(medicineId));
+    }
+
+    /** Called with a medicine id (on a background thread) whenever its held total changes. */
+    public void addListener(IntConsumer l) {
+        if (l != null) listeners.add(l);
+    }
+
+    public void removeListener(IntConsumer l) {
+        listeners.remove(l);
+    }
+
+    private void fire(int medicineId) {
+        for (IntConsumer l : listeners) {
+            try {
+                l.accept(medicineId);
+            } catch (RuntimeException e) {
+                FileLogger.warn("Reservation listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /* =======================
+       Reserve / release
+       ======================= */
+
+    /** Hold quantity units for reservation.ttl.min. Never throws; a DB failure reads as "nothing reserved". */
+    public ReserveResult reserve(int userId, int medicineId, int quantity) {
+        if (quantity <= 0) return new ReserveResult(null, Math.max(0, available(medicineId)));
+
+        // Catalog + known holds already say no: answer without the DB. A yes is only a hint;
+        // the conditional INSERT below is what decides.
+        int known = available(medicineId);
+        if (known >= 0 && known < quantity && !MedicineCatalog.getInstance().snapshot().isStale()) {
+            return new ReserveResult(null, known);
+        }
+
+        long now = System.currentTimeMillis();
+        long expiresAt = now + ttlMs;
+        try (Connection conn = DBHelper.getConnection()) {
+            try (PreparedStatement ps = DBHelper.prepareCached(conn, SQL_RESERVE)) {
+                ps.setInt(1, userId);
+                ps.setInt(2, quantity);
+                ps.setLong(3, now);
+                ps.setLong(4, expiresAt);
+                ps.setInt(5, medicineId);
+                ps.setLong(6, now);
+                ps.setInt(7, quantity);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        Reservation r = new Reservation(rs.getLong(1), medicineId, userId, quantity, expiresAt);
+                        track(r);
+                        fire(medicineId);
+                        FileLogger.at(Level.DEBUG).op("reserve").field("medicineId", medicineId)
+                                .field("reservationId", r.id()).log("Reserved {} units", quantity);
+                        return new ReserveResult(r, available(medicineId));
+                    }
+                }
+            }
+            try (PreparedStatement ps = DBHelper.prepareCached(conn, SQL_AVAILABLE)) {
+                ps.setLong(1, now);
+                ps.setInt(2, medicineId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return new ReserveResult(null, rs.next() ? Math.max(0, rs.getInt(1)) : 0);
+                }
+            }
+        } catch (SQLException e) {
+            FileLogger.at(Level.ERROR).op("reserve").field("medicineId", medicineId).log("DB error", e);
+            return new ReserveResult(null, 0);
+        }
+    }
+
+    /** Give the units back (item removed from the cart). Converted/expired ids are a no-op. */
+    public void release(long reservationId) {
+        if (reservationId <= 0) return;
+        Reservation r = untrack(reservationId);
+        deleteRows(List.of(reservationId));
+        if (r != null) fire(r.medicineId());
+    }
+
+    /** OrderEngine, after COMMIT: these holds became order lines (their rows are already gone). */
+    void converted(Collection<Long> reservationIds) {
+        for (Long id : reservationIds) {
+            Reservation r = untrack(id);
+            if (r != null) fire(r.medicineId());
+        }
+    }
+
+    private synchronized void track(Reservation r) {
+        if (live.putIfAbsent(r.id(), r) != null) return;
+        heldByMedicine.merge(r.medicineId(), r.quantity(), Integer::sum);
+        expiries.schedule(r.id(), r.expiresAt());
+    }
+
+    private synchronized Reservation untrack(long id) {
+        Reservation r = live.remove(id);
+        if (r != null) {
+            heldByMedicine.compute(r.medicineId(), (k, v) -> (v == null || v <= r.quantity()) ? null : v - r.quantity());
+        }
+        return r;
+    }
+
+    /* =======================
+       Expiry thread
+       ======================= */
+
+    private void runExpiry() {
+        long nextReload = 0;
+        while (true) {
+            try {
+                long now = System.currentTimeMillis();
+                if (now >= nextReload) {
+                    reload(now);
+                    nextReload = now + RELOAD_MS;
+                }
+                List<Long> expired = new ArrayList<>();
+                Set<Integer> touched = new HashSet<>();
+                for (Long id : expiries.advance(now)) {
+                    // Converted/released holds are already gone; a reload may have re-scheduled others
+                    Reservation r;
+                    synchronized (this) { r = live.get(id); }
+                    if (r != null && r.expiresAt() <= now && untrack(id) != null) {
+                        expired.add(id);
+                        touched.add(r.medicineId());
+                    }
+                }
+                if (!expired.isEmpty()) {
+                    deleteRows(expired);
+                    touched.forEach(this::fire);
+                    FileLogger.at(Level.DEBUG).op("reservationExpiry").field("count", expired.size())
+                            .log("Released expired reservations");
+                }
+                Thread.sleep(TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                FileLogger.warn("Reservation expiry failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Re-read every live hold (other terminals add their own) and purge rows that outlived their TTL
+    private void reload(long now) {
+        Map<Long, Reservation> fresh = new HashMap<>();
+        try (Connection conn = DBHelper.getConnection()) {
+            try (PreparedStatement ps = DBHelper.prepareCached(conn, SQL_PURGE)) {
+                ps.setLong(1, now);
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = DBHelper.prepareCached(conn, SQL_LIVE)) {
+                ps.setLong(1, now);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Reservation r = new Reservation(rs.getLong(1), rs.getInt(2), rs.getInt(3),
+                                rs.getInt(4), rs.getLong(5));
+                        fresh.put(r.id(), r);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            FileLogger.at(Level.WARN).op("reservationReload").log("DB error: {}", e.getMessage());
+            return;
+        }
+        Map<Integer, Integer> before;
+        Map<Integer, Integer> after;
+        synchronized (this) {
+            before = new HashMap<>(heldByMedicine);
+            for (Long id : new ArrayList<>(live.keySet())) {
+                if (!fresh.containsKey(id)) untrack(id); // converted/released elsewhere
+            }
+            for (Reservation r : fresh.values()) track(r);
+            after = new HashMap<>(heldByMedicine);
+        }
+        // Tell listeners about holds other terminals took or gave back
+        Set<Integer> ids = new HashSet<>(before.keySet());
+        ids.addAll(after.keySet());
+        for (Integer id : ids) {
+            if (!Objects.equals(before.get(id), after.get(id))) fire(id);
+        }
+    }
+
+    private void deleteRows(List<Long> ids) {
+        try (Connection conn = DBHelper.getConnection();
+             PreparedStatement ps = DBHelper.prepareCached(conn, SQL_DELETE)) {
+            for (Long id : ids) {
+                ps.setLong(1, id);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (SQLException e) {
+            // Harmless: an expired row no longer counts and the next reload purges it
+            FileLogger.at(Level.WARN).op("reservationRelease").log("DB error: {}", e.getMessage());
+        }
+    }
+}
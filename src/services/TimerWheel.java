@@ -0,0 +1,57 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timer wheel: deadlines are bucketed by tick into a fixed ring of
+ * slots, so scheduling is O(1) and each tick only looks at one slot. Entries
+ * more than one lap away stay in their slot until their lap comes round.
+ *
+ * There is no cancel: owners check on expiry whether the item still matters.
+ */
+final class TimerWheel<T> {
+
+    private record Timeout<T>(T item, long deadlineMs) {}
+
+    private final long tickMs;
+    private final List<Timeout<T>>[] slots;
+    private final int mask;
+    private long lastTick; // every tick up to and including this one has been processed
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickMs, int slotCount, long nowMs) {
+        int n = Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1; // next power of two
+        this.tickMs = Math.max(1, tickMs);
+        this.slots = (List<Timeout<T>>[]) new List<?>[n];
+        for (int i = 0; i < n; i++) slots[i] = new ArrayList<>();
+        this.mask = n - 1;
+        this.lastTick = nowMs / this.tickMs;
+    }
+
+    synchronized void schedule(T item, long deadlineMs) {
+        // Round up so the slot is only visited once the deadline has passed; past deadlines fire next tick
+        long tick = Math.max(Math.floorDiv(deadlineMs + tickMs - 1, tickMs), lastTick + 1);
+        slots[(int) (tick & mask)].add(new Timeout<>(item, deadlineMs));
+    }
+
+    /** Process every tick up to nowMs; returns the items whose deadline has passed. */
+    synchronized List<T> advance(long nowMs) {
+        long now = nowMs / tickMs;
+        List<T> due = new ArrayList<>();
+        // After a long pause one lap covers every slot
+        long from = Math.max(lastTick + 1, now - mask);
+        for (long tick = from; tick <= now; tick++) {
+            for (Iterator<Timeout<T>> it = slots[(int) (tick & mask)].iterator(); it.hasNext(); ) {
+                Timeout<T> t = it.next();
+                if (t.deadlineMs() <= nowMs) {
+                    due.add(t.item());
+                    it.remove();
+                }
+            }
+        }
+        lastTick = Math.max(lastTick, now);
+        return due;
+    }
+}
@@ -0,0 +1,85 @@
+package services;
+
+import models.User;
+import utils.ConfigManager;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Bounded read-through cache of users rows by id, for UserService.
+ *
+ * Holds immutable rows, and every read hands out a fresh User, so a screen
+ * editing its copy can't change what others see. Entries live for
+ * users.cache.ttl.sec at most; the least recently used go once
+ * users.cache.size is reached. Writers invalidate after their UPDATE commits.
+ * A load that started before an invalidation is not stored (generation check),
+ * so a slow reader can't put back the row that was just replaced.
+ */
+final class UserCache {
+
+    /** One users row, as UserService maps it. */
+    record Row(int id, String firstName, String lastName, String phone, String email,
+               String password, String address, String avatarPath) {
+
+        static Row of(ResultSet rs) throws SQLException {
+            return new Row(rs.getInt("id"), rs.getString("firstName"), rs.getString("lastName"),
+                    rs.getString("phone"), rs.getString("email"), rs.getString("password"),
+                    rs.getString("address"), rs.getString("avatar_path"));
+        }
+
+        User toUser() {
+            User u = new User(id, firstName, lastName, phone, email, password);
+            u.setAddress(address);
+            u.setAvatarPath(avatarPath);
+            return u;
+        }
+    }
+
+    private record Entry(Row row, long loadedAt) {}
+
+    private final int maxEntries = Math.max(1, Integer.parseInt(ConfigManager.get("users.cache.size", "256")));
+    private final long ttlMs = (long) (Double.parseDouble(ConfigManager.get("users.cache.ttl.sec", "60")) * 1000);
+
+    // Guarded by this
+    private final LinkedHashMap<Integer, Entry> rows = new LinkedHashMap<>(64, 0.75f, true);
+    private long generation;
+
+    /** Cached row if present and fresh, else null. */
+    synchronized Row get(int id) {
+        Entry e = rows.get(id);
+        if (e == null) return null;
+        if (System.currentTimeMillis() - e.loadedAt() >= ttlMs) {
+            rows.remove(id);
+            return null;
+        }
+        return e.row();
+    }
+
+    /** Take before querying; pass to {@link #put} so stale loads are dropped. */
+    synchronized long generation() { return generation; }
+
+    synchronized void put(Row row, long loadGeneration) {
+        if (row == null || loadGeneration != generation) return;
+        rows.put(row.id(), new Entry(row, System.currentTimeMillis()));
+        if (rows.size() > maxEntries) {
+            Iterator<Integer> it = rows.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    synchronized void invalidate(int id) {
+        generation++;
+        rows.remove(id);
+    }
+
+    /** For writes keyed by something other than id (email, phone). */
+    synchronized void invalidateIf(Predicate<Row> match) {
+        generation++;
+        rows.values().removeIf(e -> match.test(e.row()));
+    }
+}
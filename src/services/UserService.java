@@ -2,21 +2,44 @@ package services;
 
 import models.User;
 import utils.DBHelper;
-import org.mindrot.jbcrypt.BCrypt;
 import utils.AppException;
 import utils.FileLogger;
+import utils.FileLogger.Level;
+import utils.ImageStorage;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class UserService {
 
+    /**
+     * Outcome of a login. BUSY means the password pool refused the attempt;
+     * THROTTLED means too many attempts, retryAfterMs says when to try again.
+     */
+    public record LoginResult(Status status, User user, long retryAfterMs) {
+        public enum Status { OK, INVALID, THROTTLED, BUSY, ERROR }
+
+        public boolean isOk() { return status == Status.OK; }
+
+        static LoginResult ok(User u)             { return new LoginResult(Status.OK, u, 0); }
+        static LoginResult invalid()              { return new LoginResult(Status.INVALID, null, 0); }
+        static LoginResult throttled(long waitMs) { return new LoginResult(Status.THROTTLED, null, waitMs); }
+        static LoginResult busy()                 { return new LoginResult(Status.BUSY, null, 0); }
+        static LoginResult error()                { return new LoginResult(Status.ERROR, null, 0); }
+    }
+
+    private static final PasswordHasher HASHER = PasswordHasher.getInstance();
+    private static final LoginThrottle THROTTLE = LoginThrottle.getInstance();
+    private static final RegisteredUsers REGISTERED = RegisteredUsers.getInstance();
+    private static final UserCache CACHE = new UserCache();
+
     /* ======================
        Signup / Login
        ====================== */
@@ -34,10 +57,10 @@ public class UserService {
             VALUES(?,?,?,?,?,?,?, CAST(strftime('%s','now') AS INTEGER))
         """;
 
-        final String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt());
+        final String hashedPassword = HASHER.hashNow(password);
 
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = DBHelper.prepareCached(conn, sql)) {
 
             pstmt.setString(1, nz(firstName));
             pstmt.setString(2, nz(lastName));
@@ -48,107 +71,155 @@ public class UserService {
             setNullable(pstmt, 7, avatarPath);
 
             pstmt.executeUpdate();
-            FileLogger.info("Signup success for " + email);
+            REGISTERED.added(nz(email), nz(phone));
+            FileLogger.at(Level.INFO).op("signup").field("email", email).log("Signup success");
             return true;
 
         } catch (SQLException e) {
-            FileLogger.error("Signup failed for " + email + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("signup").field("email", email).log("Signup failed", e);
             return false;
         }
     }
 
+    /**
+     * Signup on the password pool, for the FX thread: the hash (and the insert) never
+     * block the caller. Fails with PasswordHasher.BusyException when not admitted.
+     */
+    public CompletableFuture<Boolean> signupAsync(String firstName, String lastName, String phone,
+                                                  String email, String password) {
+        return HASHER.submit("signup", () -> signup(firstName, lastName, phone, email, password));
+    }
+
+    /** Blocking login, kept for callers off the FX thread; null on any failure. */
     public User login(String email, String password) {
+        return loginAsync(email, password).join().user();
+    }
+
+    /**
+     * Look up and verify on the password pool. Never completes exceptionally:
+     * a refused admission comes back as BUSY. Throttled attempts are answered
+     * here, before any BCrypt work is queued.
+     */
+    public CompletableFuture<LoginResult> loginAsync(String email, String password) {
+        LoginThrottle.Decision d = THROTTLE.tryAcquire(email);
+        if (!d.allowed()) {
+            FileLogger.at(Level.INFO).op("login").field("email", email).field("retryAfterMs", d.retryAfterMs())
+                    .log("Login throttled");
+            return CompletableFuture.completedFuture(LoginResult.throttled(d.retryAfterMs()));
+        }
+        return HASHER.submit("login", () -> loginOnPool(email, password))
+                .thenApply(r -> {
+                    if (r.status() == LoginResult.Status.OK) THROTTLE.onSuccess(email);
+                    else if (r.status() == LoginResult.Status.INVALID) THROTTLE.onFailure(email);
+                    return r;
+                })
+                .exceptionally(t -> {
+                    Throwable c = (t instanceof CompletionException && t.getCause() != null)
+                            ? t.getCause() : t;
+                    if (c instanceof PasswordHasher.BusyException) return LoginResult.busy();
+                    FileLogger.at(Level.ERROR).op("login").field("email", email).log("Login failed", c);
+                    return LoginResult.error();
+                });
+    }
+
+    private LoginResult loginOnPool(String email, String password) {
         final String sql = "SELECT * FROM users WHERE email = ?";
+        long gen = CACHE.generation();
+        String storedPassword = null;
+        UserCache.Row row = null;
 
-        try (Connection conn = DBHelper.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        // Read and let go of the connection before BCrypt runs: a login burst must not pin the readers
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement pstmt = DBHelper.prepareCached(conn, sql)) {
 
             pstmt.setString(1, email);
             ResultSet rs = pstmt.executeQuery();
-
             if (rs.next()) {
-                String storedPassword = rs.getString("password");
-                if (storedPassword != null && BCrypt.checkpw(password, storedPassword)) {
-                    if (needsRehash(storedPassword)) {
-                        updatePasswordByEmail(email, password); // will hash inside
-                    }
-                    return mapUserBasic(rs);
-                } else {
-                    FileLogger.info("Login invalid password for " + email);
-                    return null;
-                }
+                storedPassword = rs.getString("password");
+                row = UserCache.Row.of(rs);
             }
         } catch (SQLException e) {
-            FileLogger.error("Login failed for " + email + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("login").field("email", email).log("Login failed", e);
+            return LoginResult.error();
+        }
+
+        if (row != null && HASHER.checkNow(password, storedPassword)) {
+            CACHE.put(row, gen); // the profile screens ask for it next
+            User user = row.toUser();
+            if (HASHER.needsRehash(storedPassword)) {
+                rehashLater(user.getId(), password, storedPassword);
+            }
+            return LoginResult.ok(user);
         }
-        return null;
+        FileLogger.at(Level.INFO).op("login").field("email", email).log("Login invalid credentials");
+        return LoginResult.invalid();
     }
 
     /* ======================
        Queries / Getters
        ====================== */
 
+    // Definite misses are answered from the in-memory filter; only maybes reach the DB
     public boolean isEmailRegistered(String email) {
+        if (!REGISTERED.mightHaveEmail(email)) return false;
         final String sql = "SELECT id FROM users WHERE email = ?";
-        try (Connection conn = DBHelper.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement pstmt = DBHelper.prepareCached(conn, sql)) {
             pstmt.setString(1, email);
             ResultSet rs = pstmt.executeQuery();
             return rs.next();
         } catch (SQLException e) {
-            FileLogger.error("isEmailRegistered error for " + email + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("isEmailRegistered").field("email", email).log("DB error", e);
             return false;
         }
     }
 
     public boolean isPhoneRegistered(String phone) {
+        if (!REGISTERED.mightHavePhone(phone)) return false;
         final String sql = "SELECT id FROM users WHERE phone = ?";
-        try (Connection conn = DBHelper.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement pstmt = DBHelper.prepareCached(conn, sql)) {
             pstmt.setString(1, phone);
             ResultSet rs = pstmt.executeQuery();
             return rs.next();
         } catch (SQLException e) {
-            FileLogger.error("isPhoneRegistered error for " + phone + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("isPhoneRegistered").field("phone", phone).log("DB error", e);
             return false;
         }
     }
 
+    // The by-id getters share one cached row; see UserCache
     public User getUserById(int id) {
-        final String sql = "SELECT * FROM users WHERE id = ?";
-        try (Connection conn = DBHelper.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, id);
-            var rs = ps.executeQuery();
-            if (rs.next()) return mapUserBasic(rs);
-        } catch (SQLException e) {
-            FileLogger.error("getUserById(" + id + ") failed: " + e.getMessage(), e);
-        }
-        return null;
+        UserCache.Row row = rowById(id);
+        return row == null ? null : row.toUser();
     }
 
     public String getAddressById(int id) {
-        final String sql = "SELECT address FROM users WHERE id = ?";
-        try (Connection conn = DBHelper.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, id);
-            var rs = ps.executeQuery();
-            return rs.next() ? rs.getString("address") : null;
-        } catch (SQLException e) {
-            FileLogger.error("getAddressById(" + id + ") failed: " + e.getMessage(), e);
-            return null;
-        }
+        UserCache.Row row = rowById(id);
+        return row == null ? null : row.address();
     }
 
     public String getAvatarPathById(int id) {
-        final String sql = "SELECT avatar_path FROM users WHERE id = ?";
-        try (Connection conn = DBHelper.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        UserCache.Row row = rowById(id);
+        return row == null ? null : row.avatarPath();
+    }
+
+    private UserCache.Row rowById(int id) {
+        UserCache.Row cached = CACHE.get(id);
+        if (cached != null) return cached;
+
+        final String sql = "SELECT * FROM users WHERE id = ?";
+        long gen = CACHE.generation();
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement ps = DBHelper.prepareCached(conn, sql)) {
             ps.setInt(1, id);
             var rs = ps.executeQuery();
-            return rs.next() ? rs.getString("avatar_path") : null;
+            if (!rs.next()) return null;
+            UserCache.Row row = UserCache.Row.of(rs);
+            CACHE.put(row, gen);
+            return row;
         } catch (SQLException e) {
-            FileLogger.error("getAvatarPathById(" + id + ") failed: " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("getUserById").field("userId", id).log("DB error", e);
             return null;
         }
     }
@@ -170,7 +241,7 @@ public class UserService {
              WHERE id = ?
         """;
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+             PreparedStatement ps = DBHelper.prepareCached(conn, sql)) {
 
             ps.setString(1, nz(firstName));
             ps.setString(2, nz(lastName));
@@ -180,11 +251,13 @@ public class UserService {
             ps.setInt(6, id);
 
             boolean ok = ps.executeUpdate() > 0;
-            if (!ok) FileLogger.warn("updateProfile: no row updated for id=" + id);
+            CACHE.invalidate(id);
+            if (ok) REGISTERED.added(null, nz(phone));
+            else FileLogger.at(Level.WARN).op("updateProfile").field("userId", id).log("No row updated");
             return ok;
 
         } catch (SQLException e) {
-            FileLogger.error("updateProfile failed for id=" + id + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("updateProfile").field("userId", id).log("DB error", e);
             throw new AppException("Could not update profile. Please try again.", e);
         }
     }
@@ -203,12 +276,14 @@ public class UserService {
              WHERE id = ?
         """;
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+             PreparedStatement ps = DBHelper.prepareCached(conn, sql)) {
             setNullable(ps, 1, address);
             ps.setInt(2, id);
-            return ps.executeUpdate() > 0;
+            boolean ok = ps.executeUpdate() > 0;
+            CACHE.invalidate(id);
+            return ok;
         } catch (SQLException e) {
-            FileLogger.error("updateAddress failed for id=" + id + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("updateAddress").field("userId", id).log("DB error", e);
             return false;
         }
     }
@@ -220,12 +295,14 @@ public class UserService {
              WHERE id = ?
         """;
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+             PreparedStatement ps = DBHelper.prepareCached(conn, sql)) {
             setNullable(ps, 1, avatarPath);
             ps.setInt(2, id);
-            return ps.executeUpdate() > 0;
+            boolean ok = ps.executeUpdate() > 0;
+            CACHE.invalidate(id);
+            return ok;
         } catch (SQLException e) {
-            FileLogger.error("updateAvatarPath failed for id=" + id + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("updateAvatarPath").field("userId", id).log("DB error", e);
             return false;
         }
     }
@@ -239,21 +316,36 @@ public class UserService {
        Password Updates
        ====================== */
 
+    // Async variants for the FX thread; they fail with PasswordHasher.BusyException when not admitted
+    public CompletableFuture<Boolean> updatePasswordByEmailAsync(String email, String newPassword) {
+        return HASHER.submit("resetPassword", () -> updatePasswordByEmail(email, newPassword));
+    }
+
+    public CompletableFuture<Boolean> updatePasswordByPhoneAsync(String phone, String newPassword) {
+        return HASHER.submit("resetPassword", () -> updatePasswordByPhone(phone, newPassword));
+    }
+
+    public CompletableFuture<Boolean> changePasswordAsync(int userId, String oldPassword, String newPassword) {
+        return HASHER.submit("changePassword", () -> changePassword(userId, oldPassword, newPassword));
+    }
+
     public boolean updatePasswordByEmail(String email, String newPassword) {
         final String sql = """
             UPDATE users
                SET password = ?, updated_at = CAST(strftime('%s','now') AS INTEGER)
              WHERE email = ?
         """;
-        final String hashed = BCrypt.hashpw(newPassword, BCrypt.gensalt());
+        final String hashed = HASHER.hashNow(newPassword);
 
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = DBHelper.prepareCached(conn, sql)) {
             pstmt.setString(1, hashed);
             pstmt.setString(2, email);
-            return pstmt.executeUpdate() > 0;
+            boolean ok = pstmt.executeUpdate() > 0;
+            CACHE.invalidateIf(r -> Objects.equals(email, r.email()));
+            return ok;
         } catch (SQLException e) {
-            FileLogger.error("updatePasswordByEmail failed for " + email + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("updatePasswordByEmail").field("email", email).log("DB error", e);
             return false;
         }
     }
@@ -264,76 +356,92 @@ public class UserService {
                SET password = ?, updated_at = CAST(strftime('%s','now') AS INTEGER)
              WHERE phone = ?
         """;
-        final String hashed = BCrypt.hashpw(newPassword, BCrypt.gensalt());
+        final String hashed = HASHER.hashNow(newPassword);
 
         try (Connection conn = DBHelper.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = DBHelper.prepareCached(conn, sql)) {
             pstmt.setString(1, hashed);
             pstmt.setString(2, phone);
-            return pstmt.executeUpdate() > 0;
+            boolean ok = pstmt.executeUpdate() > 0;
+            CACHE.invalidateIf(r -> Objects.equals(phone, r.phone()));
+            return ok;
         } catch (SQLException e) {
-            FileLogger.error("updatePasswordByPhone failed for " + phone + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("updatePasswordByPhone").field("phone", phone).log("DB error", e);
             return false;
         }
     }
 
-    // Validate old password and set new one
+    // Validate old password and set new one (no connection held while hashing)
     public boolean changePassword(int userId, String oldPassword, String newPassword) {
         final String sqlGet = "SELECT password FROM users WHERE id=?";
         final String sqlUpd = """
             UPDATE users SET password=?, updated_at=CAST(strftime('%s','now') AS INTEGER)
-             WHERE id=?
+             WHERE id=? AND password=?
         """;
-        try (Connection conn = DBHelper.getConnection();
-             PreparedStatement get = conn.prepareStatement(sqlGet)) {
-
+        String oldHash = null;
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement get = DBHelper.prepareCached(conn, sqlGet)) {
             get.setInt(1, userId);
             ResultSet rs = get.executeQuery();
-            if (rs.next()) {
-                String oldHash = rs.getString("password");
-                if (oldHash != null && BCrypt.checkpw(oldPassword, oldHash)) {
-                    String newHash = BCrypt.hashpw(newPassword, BCrypt.gensalt());
-                    try (PreparedStatement upd = conn.prepareStatement(sqlUpd)) {
-                        upd.setString(1, newHash);
-                        upd.setInt(2, userId);
-                        return upd.executeUpdate() > 0;
-                    }
-                }
-            }
+            if (rs.next()) oldHash = rs.getString("password");
         } catch (SQLException e) {
-            FileLogger.error("changePassword failed for id=" + userId + ": " + e.getMessage(), e);
+            FileLogger.at(Level.ERROR).op("changePassword").field("userId", userId).log("DB error", e);
+            return false;
+        }
+        if (!HASHER.checkNow(oldPassword, oldHash)) return false;
+
+        String newHash = HASHER.hashNow(newPassword);
+        // Only if nobody changed it meanwhile
+        try (Connection conn = DBHelper.getConnection();
+             PreparedStatement upd = DBHelper.prepareCached(conn, sqlUpd)) {
+            upd.setString(1, newHash);
+            upd.setInt(2, userId);
+            upd.setString(3, oldHash);
+            boolean ok = upd.executeUpdate() > 0;
+            CACHE.invalidate(userId);
+            return ok;
+        } catch (SQLException e) {
+            FileLogger.at(Level.ERROR).op("changePassword").field("userId", userId).log("DB error", e);
+            return false;
         }
-        return false;
     }
 
     /* ======================
        Avatar File Storage
        ====================== */
 
-    /** Copy chosen avatar image into app storage (./avatars/avatar_{id}.ext) and return absolute path. */
+    /** Store the chosen avatar in the shared image store and return its absolute path. */
     public Path saveAvatarToAppStorage(int userId, Path sourcePath) throws IOException {
-        Path dir = Path.of("avatars");
-        if (!Files.exists(dir)) Files.createDirectories(dir);
-
-        String ext = getFileExtension(sourcePath.getFileName().toString());
-        Path target = dir.resolve("avatar_" + userId + ext);
-
-        Files.copy(sourcePath, target, StandardCopyOption.REPLACE_EXISTING);
-        return target.toAbsolutePath();
-    }
-
-    private static String getFileExtension(String fileName) {
-        int dot = fileName.lastIndexOf('.');
-        return (dot >= 0) ? fileName.substring(dot) : "";
+        String saved = ImageStorage.saveImage(sourcePath.toFile());
+        if (saved == null) throw new IOException("Avatar file not found: " + sourcePath);
+        return Path.of(saved);
     }
 
     /* ======================
        Helpers
        ====================== */
 
-    private static boolean needsRehash(String hash) {
-        // Very simple policy example: treat anything not starting with $2a$, $2b$, or $2y$ as needing rehash.
-        return !(hash.startsWith("$2a$") || hash.startsWith("$2b$") || hash.startsWith("$2y$"));
+    // Upgrade a stale hash once the login has answered; skipped when the pool is loaded (next login retries)
+    private void rehashLater(int userId, String password, String oldHash) {
+        final String sql = """
+            UPDATE users SET password = ?, updated_at = CAST(strftime('%s','now') AS INTEGER)
+             WHERE id = ? AND password = ?
+        """;
+        HASHER.background("rehash", () -> {
+            String newHash = HASHER.hashNow(password);
+            try (Connection conn = DBHelper.getConnection();
+                 PreparedStatement ps = DBHelper.prepareCached(conn, sql)) {
+                ps.setString(1, newHash);
+                ps.setInt(2, userId);
+                ps.setString(3, oldHash); // a password changed meanwhile wins
+                if (ps.executeUpdate() > 0) {
+                    CACHE.invalidate(userId);
+                    FileLogger.at(Level.INFO).op("rehash").field("userId", userId).log("Password rehashed");
+                }
+            } catch (SQLException e) {
+                FileLogger.at(Level.ERROR).op("rehash").field("userId", userId).log("Rehash failed", e);
+            }
+        });
     }
 
     private static String nz(String s) { return s == null ? "" : s.trim(); }
@@ -343,21 +451,6 @@ public class UserService {
         else ps.setString(idx, val.trim());
     }
 
-    // Map the known fields; attempt to read address & avatar_path if present (safe if model lacks setters)
-    private static User mapUserBasic(ResultSet rs) throws SQLException {
-        User u = new User(
-                rs.getInt("id"),
-                rs.getString("firstName"),
-                rs.getString("lastName"),
-                rs.getString("phone"),
-                rs.getString("email"),
-                rs.getString("password")
-        );
-        try { u.setAddress(rs.getString("address")); } catch (Throwable ignored) {}
-        try { u.setAvatarPath(rs.getString("avatar_path")); } catch (Throwable ignored) {}
-        return u;
-    }
-
     // Safely read from model (compatible even if getters are missing in older model)
     private static String safeGetAddress(User u) {
         try { return u.getAddress(); } catch (Throwable t) { return null; }
@@ -6,7 +6,6 @@ import javafx.geometry.Rectangle2D;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.TextFormatter.Change;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
@@ -19,6 +18,7 @@ import javafx.stage.Stage;
 import models.Inventory;
 import models.Medicine;
 import services.MedicineService;
+import utils.ImageCache;
 import utils.ImageStorage;
 
 import java.io.File;
@@ -113,9 +113,7 @@ public class AddMedicineForm {
             File f = fc.showOpenDialog(stage);
             if (f != null) {
                 chosenImage = f;
-                try {
-                    preview.setImage(new Image(f.toURI().toString(), 150, 120, true, true));
-                } catch (Exception ignored) { /* keep UI calm */ }
+                ImageCache.getInstance().bind(preview, 150, 120, ImageCache.fileUrl(f.getPath()));
             }
         });
 
@@ -1,10 +1,13 @@
 package ui;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.function.Predicate;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.ReadOnlyObjectWrapper;
@@ -24,6 +27,7 @@ import javafx.scene.input.KeyCode;
 import javafx.scene.layout.*;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import models.Inventory;
 import models.Medicine;
 import services.MedicineService;
@@ -44,8 +48,18 @@ public class AdminDashboard {
         return t;
     });
 
+    // Searches get their own thread so they never queue behind a full refresh on io
+    private final ExecutorService searchExec = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "AdminDashboard-Search");
+        t.setDaemon(true);
+        return t;
+    });
+
     private ScheduledExecutorService poller;
 
+    private static final int SEARCH_PAGE = 1000;
+    private volatile long searchSeq = 0; // written on the FX thread, read by searchExec
+
     // --- Constructors ---
     public AdminDashboard(Inventory inventory, CustomerDashboard customerDashboard) {
         this.inventory = inventory;
@@ -90,7 +104,9 @@ public class AdminDashboard {
 
         // Filtered & sorted views (so search just works)
         FilteredList<Medicine> filtered = new FilteredList<>(baseData, m -> true);
-        searchField.textProperty().addListener((obs, oldV, q) -> filtered.setPredicate(buildPredicate(q)));
+        PauseTransition searchDebounce = new PauseTransition(Duration.millis(150));
+        searchDebounce.setOnFinished(e -> applySearch(searchField.getText(), filtered));
+        searchField.textProperty().addListener((obs, oldV, q) -> searchDebounce.playFromStart());
 
         SortedList<Medicine> sorted = new SortedList<>(filtered);
         sorted.comparatorProperty().bind(table.comparatorProperty());
@@ -306,16 +322,45 @@ public class AdminDashboard {
         // Cleanup
         stage.setOnCloseRequest(ev -> {
             io.shutdownNow();
+            searchExec.shutdownNow();
             stopPolling();
             try { MedicineSync.getInstance().stop(); } catch (Throwable ignored) {}
         });
     }
 
-    private static Predicate<Medicine> buildPredicate(String q) {
+    // ID matches stay local; name/category matches come from the FTS index (off the FX thread),
+    // paged until the hits run out so large catalogs aren't cut off
+    private void applySearch(String q, FilteredList<Medicine> filtered) {
+        long seq = ++searchSeq;
+        if (q == null || q.isBlank()) {
+            filtered.setPredicate(m -> true);
+            return;
+        }
+        CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        Set<Integer> ids = new HashSet<>();
+                        for (int offset = 0; seq == searchSeq; offset += SEARCH_PAGE) {
+                            List<Medicine> page = medicineService.search(q, SEARCH_PAGE, offset);
+                            for (Medicine m : page) ids.add(m.getId());
+                            if (page.size() < SEARCH_PAGE) break;
+                        }
+                        return ids;
+                    } catch (Exception ex) {
+                        return null;
+                    }
+                }, searchExec)
+                .thenAccept(ids -> Platform.runLater(() -> {
+                    if (seq == searchSeq) filtered.setPredicate(buildPredicate(q, ids));
+                }));
+    }
+
+    private static Predicate<Medicine> buildPredicate(String q, Set<Integer> hits) {
         if (q == null || q.isBlank()) return m -> true;
         String s = q.trim().toLowerCase();
         return m -> {
             if (String.valueOf(m.getId()).contains(s)) return true;
+            if (hits != null) return hits.contains(m.getId());
             String n = m.getName() == null ? "" : m.getName().toLowerCase();
             String c = m.getCategory() == null ? "" : m.getCategory().toLowerCase();
             return n.contains(s) || c.contains(s);
@@ -1,6 +1,7 @@
 package ui;
 
 import javafx.animation.FadeTransition;
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
@@ -17,13 +18,10 @@ import javafx.stage.Stage;
 import javafx.util.Duration;
 import models.Medicine;
 import models.OrderItem;
+import services.OrderEngine;
 import services.OrderService;
+import services.StockReservations;
 import utils.Session;
-import utils.DBHelper;
-
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 
 public class CartView {
 
@@ -158,6 +156,7 @@ public class CartView {
                 return;
             }
             cartData.remove(selected);
+            StockReservations.getInstance().release(selected.getReservationId());
         });
 
         Button checkoutBtn = new Button("Proceed to Payment");
@@ -273,85 +272,41 @@ public class CartView {
 
         int userId = Session.getCurrentUserId();
 
-        double total = orderItems.stream().mapToDouble(OrderItem::getTotalPrice).sum();
-        String orderDate = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
-                .format(new java.util.Date());
-
-        String orderSql =
-                "INSERT INTO order_items(user_id, medicine_id, quantity, total_price, order_date) " +
-                        "VALUES(?, ?, ?, ?, ?)";
-
-        // use serial_number (med.getId())
-        String stockSql =
-                "UPDATE medicines " +
-                        "SET quantity = quantity - ?, " +
-                        "    last_updated = strftime('%s','now') " +
-                        "WHERE serial_number = ? AND quantity >= ?";
-
-        try (Connection conn = DBHelper.getConnection()) {
-            conn.setAutoCommit(false);
-
-            try (PreparedStatement orderStmt = conn.prepareStatement(orderSql);
-                 PreparedStatement stockStmt = conn.prepareStatement(stockSql)) {
+        orderService.placeOrder(userId, orderItems)
+                .thenAccept(result -> Platform.runLater(() -> showOrderResult(orderItems, result)));
+    }
 
+    private void showOrderResult(ObservableList<OrderItem> orderItems, OrderEngine.OrderResult result) {
+        switch (result.status()) {
+            case PLACED -> {
+                // Update in-memory quantities
                 for (OrderItem item : orderItems) {
                     Medicine med = item.getMedicine();
-
-                    // ---- INSERT INTO order_items ----
-                    orderStmt.setInt(1, userId);
-                    orderStmt.setInt(2, med.getId());
-                    orderStmt.setInt(3, item.getQuantity());
-                    orderStmt.setDouble(4, item.getTotalPrice());
-                    orderStmt.setString(5, orderDate);
-                    orderStmt.addBatch();
-
-                    // ---- UPDATE medicines.quantity ----
-                    stockStmt.setInt(1, item.getQuantity());
-                    stockStmt.setInt(2, med.getId());
-                    stockStmt.setInt(3, item.getQuantity());
-                    stockStmt.addBatch();
+                    if (med != null) {
+                        int newQty = med.getQuantity() - item.getQuantity();
+                        med.setQuantity(Math.max(newQty, 0));
+                    }
                 }
 
-                orderStmt.executeBatch();
-                int[] stockResults = stockStmt.executeBatch();
+                // Clear real cart
+                cartData.clear();
 
-                for (int res : stockResults) {
-                    if (res == 0) {
-                        conn.rollback();
-                        new Alert(Alert.AlertType.ERROR,
-                                "Stock update failed for one of the medicines. Please try again.")
-                                .showAndWait();
-                        return;
-                    }
-                }
+                // Show BillView on same Stage
+                BillView billView = new BillView(orderItems, result.total(), result.orderDate());
+                billView.show(stage);
 
-                conn.commit();
-            } catch (SQLException inner) {
-                conn.rollback();
-                throw inner;
+                new Alert(Alert.AlertType.INFORMATION, "Order placed successfully!").showAndWait();
             }
-
-            // Update in-memory quantities
-            for (OrderItem item : orderItems) {
-                Medicine med = item.getMedicine();
-                if (med != null) {
-                    int newQty = med.getQuantity() - item.getQuantity();
-                    med.setQuantity(Math.max(newQty, 0));
-                }
+            case OUT_OF_STOCK -> {
+                String name = orderItems.stream()
+                        .filter(oi -> oi.getMedicineId() == result.medicineId())
+                        .map(oi -> oi.getMedicine().getName())
+                        .findFirst().orElse("one of the medicines");
+                new Alert(Alert.AlertType.ERROR,
+                        "Not enough stock for " + name + " (" + result.available()
+                                + " left). Please adjust your cart and try again.").showAndWait();
             }
-
-            // Clear real cart
-            cartData.clear();
-
-            // Show BillView on same Stage
-            BillView billView = new BillView(orderItems, total, orderDate);
-            billView.show(stage);
-
-            new Alert(Alert.AlertType.INFORMATION, "Order placed successfully!").showAndWait();
-
-        } catch (SQLException e) {
-            new Alert(Alert.AlertType.ERROR,
-                    "Database error while placing order: " + e.getMessage()).showAndWait();
+            default -> new Alert(Alert.AlertType.ERROR, result.message()).showAndWait();
         }
     }
 }
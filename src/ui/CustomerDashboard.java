@@ -1,9 +1,11 @@
 package ui;
 
 import javafx.animation.FadeTransition;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
-import javafx.collections.FXCollections;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.SimpleIntegerProperty;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -11,7 +13,6 @@ import javafx.scene.Scene;
 import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.effect.DropShadow;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
@@ -21,16 +22,22 @@ import javafx.util.Duration;
 import models.Inventory;
 import models.Medicine;
 import models.OrderItem;
+import net.MedicineSyncClient;
+import services.MedicineCatalog;
 import services.MedicineService;
 import services.OrderService;
+import services.StockReservations;
 import utils.AppException;
+import utils.ConfigManager;
 import utils.FileLogger;
+import utils.FileLogger.Level;
+import utils.ImageCache;
+import utils.ImageStorage;
 import utils.Session;
 
-import java.net.URL;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.function.IntConsumer;
 
 public class CustomerDashboard {
 
@@ -40,7 +47,6 @@ public class CustomerDashboard {
 
     private final boolean guestMode;
 
-    private final ObservableList<Medicine> medicinesData;
     private final ObservableList<OrderItem> cartData;
 
     // UI members
@@ -53,12 +59,34 @@ public class CustomerDashboard {
     private Button profileButton;
     private ScrollPane scroller;
 
-    private final Map<String, Image> imageCache = new ConcurrentHashMap<>();
+    private final PauseTransition searchDebounce = new PauseTransition(Duration.millis(150));
+
+    // ====== Lazy paging (keyset pages from MedicineService) ======
+    private static final int PAGE_ROWS = 6;           // rows of cards fetched per page
+    private static final double LOAD_AHEAD = 0.85;    // fetch next page past this scroll position
+    private long viewGen = 0;                         // bumps on every re-render; stale pages are dropped
+    private MedicineService.PageCursor nextCursor;
+    private boolean pageLoading;
+    private boolean pagesExhausted;
+    private String currentCategory;
+    private GridPane currentGrid;
+    private int gridCol, gridRow, renderedCount;
+    private final Map<Integer, Medicine> renderedById = new HashMap<>(); // cards on screen, patched in place
+    private final Map<Integer, IntegerProperty> availableById = new HashMap<>(); // stock minus live holds, per card
+    private final IntConsumer holdListener = id -> Platform.runLater(() -> refreshAvailable(id));
+
+    // Page loads and refreshes; kept off the common ForkJoinPool so they can't be starved by other async work
+    private static final ExecutorService IO = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "CustomerDashboard-IO");
+        t.setDaemon(true);
+        return t;
+    });
+
     private ScheduledExecutorService poller;
+    private MedicineSyncClient syncClient;
     private static final int POLL_SECS = 0;
 
     private volatile long lastRefreshMs = 0L;
-    private String lastDataSignature = "";
 
     // ====== Responsive layout tuning ======
     private static final double CARD_PREF_WIDTH = 220;
@@ -82,12 +110,14 @@ public class CustomerDashboard {
         this.medicineService = medicineService;
         this.orderService = orderService;
         this.guestMode = guestMode;
-        this.medicinesData = FXCollections.observableArrayList();
         // ✅ Use per-user (or guest) cart from Session instead of a fresh list
         this.cartData = Session.getCart();
     }
 
     public void show(Stage stage) {
+        // Seed from the snapshot saved by the last run so the first frame doesn't wait on the DB
+        boolean fromSavedCatalog = medicineService.warmCatalog().isStale();
+
         Label title = new Label("Customer Dashboard");
         title.setStyle("-fx-font-size: 30px; -fx-font-weight: bold; "
                 + "-fx-text-fill: linear-gradient(to right, #26A69A, #2196F3);");
@@ -113,7 +143,8 @@ public class CustomerDashboard {
         searchField.setPromptText("Search medicine...");
         styleSearch(searchField);
         searchField.setMinWidth(260);
-        searchField.setOnKeyReleased(e -> refreshCategoryView());
+        searchDebounce.setOnFinished(e -> refreshCategoryView());
+        searchField.textProperty().addListener((obs, o, n) -> searchDebounce.playFromStart());
 
         sortBox = new ComboBox<>();
         sortBox.getItems().addAll("Sort by Price: Low → High", "Sort by Price: High → Low");
@@ -139,6 +170,10 @@ public class CustomerDashboard {
         scroller.setVbarPolicy(ScrollPane.ScrollBarPolicy.AS_NEEDED);
         scroller.setStyle("-fx-background-color: transparent; -fx-background-insets: 0;");
 
+        scroller.vvalueProperty().addListener((obs, ov, nv) -> {
+            if (nv.doubleValue() >= LOAD_AHEAD) loadNextPage();
+        });
+
         scroller.viewportBoundsProperty().addListener((obs, ov, nv) -> {
             categoryContainer.setPrefWidth(nv.getWidth());
             int cols = computeCols(nv.getWidth());
@@ -177,8 +212,10 @@ public class CustomerDashboard {
         ft.setToValue(1);
         ft.play();
 
-        // Initial population
+        // Initial population: saved rows are already on screen if we had them; reconcile with the DB
+        if (fromSavedCatalog && renderedCount == 0) refreshCategoryView();
         refreshMedicines();
+        if (fromSavedCatalog) setStatus("Showing saved catalog (may be out of date) — checking for updates...");
         try {
             medicineService.addChangeListener(this::refreshMedicines);
         } catch (Throwable ignored) {}
@@ -189,8 +226,18 @@ public class CustomerDashboard {
                     POLL_SECS, POLL_SECS, TimeUnit.SECONDS);
         }
 
+        // Live updates from an admin node: deltas land in the shared catalog, we only re-render
+        if (Boolean.parseBoolean(ConfigManager.get("socket.enabled", "false"))) {
+            syncClient = new MedicineSyncClient();
+            syncClient.start(delta -> Platform.runLater(() -> applyDelta(delta)));
+        }
+
+        StockReservations.getInstance().addListener(holdListener);
+
         stage.setOnCloseRequest(e -> {
+            StockReservations.getInstance().removeListener(holdListener);
             if (poller != null) poller.shutdownNow();
+            if (syncClient != null) syncClient.stop();
         });
 
         updateCartBadge();
@@ -245,123 +292,180 @@ public class CustomerDashboard {
         new ProfileView().show(stage);
     }
 
-    // === Category View ===
+    // === Category View (lazily paged) ===
+    // Starts over from the first page; further pages load as the user scrolls.
     private void refreshCategoryView() {
+        viewGen++;
         categoryContainer.getChildren().clear();
-        java.util.List<Medicine> filtered = getFilteredSorted();
-
-        Map<String, java.util.List<Medicine>> grouped = filtered.stream()
-                .collect(Collectors.groupingBy(m -> safe(m.getCategory()), TreeMap::new, Collectors.toList()));
+        nextCursor = null;
+        pageLoading = false;
+        pagesExhausted = false;
+        currentCategory = null;
+        currentGrid = null;
+        renderedCount = 0;
+        renderedById.clear();
+        availableById.clear();
+        if (scroller != null) scroller.setVvalue(0);
+        loadNextPage();
+    }
 
-        int cols = (lastCols > 0) ? lastCols
-                : computeCols(scroller != null && scroller.getViewportBounds() != null
-                ? scroller.getViewportBounds().getWidth()
-                : categoryContainer.getWidth());
+    private void loadNextPage() {
+        if (pageLoading || pagesExhausted || categoryContainer == null) return;
+        pageLoading = true;
+
+        final long gen = viewGen;
+        final String q = (searchField == null || searchField.getText() == null)
+                ? "" : searchField.getText().trim();
+        final boolean desc = isPriceDescending();
+        final MedicineService.PageCursor after = nextCursor;
+        final int pageSize = currentCols() * PAGE_ROWS;
+
+        MedicineCatalog.Snapshot snap = MedicineCatalog.getInstance().snapshot();
+        if (snap.isStale()) {
+            // Saved catalog, DB not consulted yet: page from memory, synchronously
+            showPage(gen, medicineService.getPage(snap, q, desc, after, pageSize));
+            return;
+        }
 
-        for (var entry : grouped.entrySet()) {
-            String category = entry.getKey();
-            java.util.List<Medicine> meds = entry.getValue();
-            if (meds.isEmpty()) continue;
-
-            Label header = new Label(category);
-            header.setStyle("""
-                -fx-font-size: 20px;
-                -fx-font-weight: bold;
-                -fx-text-fill: white;
-                -fx-padding: 6 14;
-                -fx-background-radius: 10;
-                -fx-background-color: linear-gradient(to right, #26A69A, #2196F3);
-            """);
-
-            GridPane grid = new GridPane();
-            grid.setHgap(GRID_HGAP);
-            grid.setVgap(22);
-            grid.setPadding(new Insets(10, 0, 0, 0));
-
-            int col = 0, row = 0;
-            for (Medicine m : meds) {
-                VBox card = createMedicineCard(m);
-                card.setPrefWidth(CARD_PREF_WIDTH);
-                grid.add(card, col, row);
-                col++;
-                if (col >= cols) {
-                    col = 0;
-                    row++;
-                }
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return medicineService.getPage(q, desc, after, pageSize);
+            } catch (AppException ex) {
+                FileLogger.at(Level.ERROR).op("loadPage").field("query", q).log("Page load failed", ex);
+                return null;
             }
+        }, IO).thenAccept(page -> Platform.runLater(() -> showPage(gen, page)));
+    }
 
-            VBox section = new VBox(10, header, grid);
-            section.setPadding(new Insets(8, 0, 12, 0));
-            categoryContainer.getChildren().add(section);
+    private void showPage(long gen, MedicineService.Page page) {
+        if (gen != viewGen) return; // view was reset while loading
+        pageLoading = false;
+        if (page == null) {
+            // Leave pagesExhausted alone: the next scroll retries this page
+            setStatus("Failed to load medicines");
+            return;
         }
+        appendCards(page.items());
+        nextCursor = page.next();
+        pagesExhausted = !page.hasMore();
 
-        if (filtered.isEmpty()) {
+        if (pagesExhausted && renderedCount == 0) {
             Label empty = new Label("No medicines found.");
             empty.setStyle("-fx-text-fill: rgba(0,0,0,0.6); -fx-font-size: 15px;");
             categoryContainer.getChildren().add(empty);
         }
+        // Keep filling until the viewport can scroll (or nothing is left)
+        if (!pagesExhausted) {
+            categoryContainer.applyCss();
+            categoryContainer.layout();
+            if (scroller.getVvalue() >= LOAD_AHEAD
+                    || categoryContainer.getHeight() <= scroller.getViewportBounds().getHeight()) {
+                loadNextPage();
+            }
+        }
+    }
+
+    // Pages arrive ordered by category, so cards either extend the open section or start a new one
+    private void appendCards(java.util.List<Medicine> meds) {
+        int cols = currentCols();
+        for (Medicine m : meds) {
+            String category = safe(m.getCategory());
+            if (currentGrid == null || !category.equals(currentCategory)) {
+                startSection(category);
+            }
+            VBox card = createMedicineCard(m);
+            card.setPrefWidth(CARD_PREF_WIDTH);
+            currentGrid.add(card, gridCol, gridRow);
+            renderedById.put(m.getId(), m);
+            gridCol++;
+            if (gridCol >= cols) {
+                gridCol = 0;
+                gridRow++;
+            }
+            renderedCount++;
+        }
     }
 
-    private java.util.List<Medicine> getFilteredSorted() {
-        String q = (searchField == null || searchField.getText() == null)
-                ? ""
-                : searchField.getText().trim().toLowerCase();
+    private void startSection(String category) {
+        Label header = new Label(category);
+        header.setStyle("""
+            -fx-font-size: 20px;
+            -fx-font-weight: bold;
+            -fx-text-fill: white;
+            -fx-padding: 6 14;
+            -fx-background-radius: 10;
+            -fx-background-color: linear-gradient(to right, #26A69A, #2196F3);
+        """);
 
-        java.util.List<Medicine> filtered = medicinesData.stream()
-                .filter(m -> q.isBlank()
-                        || (m.getName() != null && m.getName().toLowerCase().contains(q))
-                        || (m.getCategory() != null && m.getCategory().toLowerCase().contains(q)))
-                .collect(Collectors.toList());
+        GridPane grid = new GridPane();
+        grid.setHgap(GRID_HGAP);
+        grid.setVgap(22);
+        grid.setPadding(new Insets(10, 0, 0, 0));
 
-        Comparator<Medicine> cmp;
-        String sortOpt = sortBox != null ? sortBox.getValue() : "Sort by Price: Low → High";
-        if ("Sort by Price: High → Low".equals(sortOpt)) {
-            cmp = Comparator.comparingDouble(Medicine::getPrice).reversed();
-        } else {
-            cmp = Comparator.comparingDouble(Medicine::getPrice);
-        }
-        filtered.sort(cmp);
-        return filtered;
+        VBox section = new VBox(10, header, grid);
+        section.setPadding(new Insets(8, 0, 12, 0));
+        categoryContainer.getChildren().add(section);
+
+        currentCategory = category;
+        currentGrid = grid;
+        gridCol = 0;
+        gridRow = 0;
+    }
+
+    private int currentCols() {
+        return (lastCols > 0) ? lastCols
+                : computeCols(scroller != null && scroller.getViewportBounds() != null
+                ? scroller.getViewportBounds().getWidth()
+                : categoryContainer.getWidth());
     }
 
-    // === CARD with live stock bindings ===
+    // === CARD bound to its Medicine, so catalog deltas patch it in place ===
     private VBox createMedicineCard(Medicine m) {
         Node imageNode = loadImageNodeForMedicine(m);
 
-        Label name = new Label(safe(m.getName()));
+        Label name = new Label();
+        name.textProperty().bind(Bindings.createStringBinding(() -> safe(m.getName()), m.nameProperty()));
         name.setStyle("-fx-font-size: 15px; -fx-font-weight: bold;");
 
-        Label price = new Label("Price : " + m.getPrice());
-        Label expiry = new Label("Expiry: " + safe(m.getExpiryDate()));
+        Label price = new Label();
+        price.textProperty().bind(Bindings.createStringBinding(() -> "Price : " + m.getPrice(), m.priceProperty()));
+        Label expiry = new Label();
+        expiry.textProperty().bind(Bindings.createStringBinding(
+                () -> "Expiry: " + safe(m.getExpiryDate()), m.expiryDateProperty()));
+
+        // Available to sell (catalog stock minus every cart's live holds), answered from memory
+        IntegerProperty available = new SimpleIntegerProperty(availableOf(m));
+        availableById.put(m.getId(), available);
+        m.quantityProperty().addListener((obs, o, n) -> available.set(availableOf(m)));
 
         Label stock = new Label();
         stock.textProperty().bind(
                 Bindings.createStringBinding(
-                        () -> m.getQuantity() > 0
-                                ? "In Stock: " + m.getQuantity()
+                        () -> available.get() > 0
+                                ? "In Stock: " + available.get()
                                 : "Out of Stock",
-                        m.quantityProperty()
+                        available
                 )
         );
         stock.styleProperty().bind(
                 Bindings.createStringBinding(
-                        () -> m.getQuantity() > 0
+                        () -> available.get() > 0
                                 ? "-fx-text-fill: #2e7d32; -fx-font-weight: bold;"
                                 : "-fx-text-fill: #c62828; -fx-font-weight: bold;",
-                        m.quantityProperty()
+                        available
                 )
         );
 
-        int initialQty = Math.max(1, m.getQuantity());
+        int initialQty = Math.max(1, available.get());
         Spinner<Integer> qtySpinner = new Spinner<>(1, initialQty, 1);
         qtySpinner.setEditable(false);
-        qtySpinner.setDisable(m.getQuantity() <= 0);
+        qtySpinner.setDisable(available.get() <= 0);
 
         Button addBtn = new Button("Add to Cart");
         addBtn.setStyle("-fx-background-color: #4CAF50; -fx-text-fill: white; -fx-background-radius: 18;");
-        addBtn.setDisable(m.getQuantity() <= 0);
+        addBtn.setDisable(available.get() <= 0);
 
-        m.quantityProperty().addListener((obs, oldVal, newVal) -> {
+        available.addListener((obs, oldVal, newVal) -> {
             int q = newVal.intValue();
             boolean noStock = q <= 0;
 
@@ -382,8 +486,8 @@ public class CustomerDashboard {
 
         addBtn.setOnAction(e -> {
             int qty = qtySpinner.getValue();
-            addToCart(m, qty);
-            updateCartBadge();
+            addBtn.setDisable(true); // until the reservation answers
+            addToCart(m, qty, () -> addBtn.setDisable(available.get() <= 0));
         });
 
         VBox card = new VBox(8, imageNode, name, price, expiry, stock, qtySpinner, addBtn);
@@ -415,25 +519,14 @@ public class CustomerDashboard {
         return card;
     }
 
-    // === Image loader ===
+    // === Image loader (shared ImageCache: off-thread decode, placeholder first) ===
     private Node loadImageNodeForMedicine(Medicine m) {
-        Image img = null;
-        String p = (m.getImagePath() == null || m.getImagePath().isBlank())
-                ? null
-                : m.getImagePath().trim();
-
-        if (p != null) img = loadImageFile(p, 140, 120);
-        if (img == null && m.getName() != null)
-            img = loadImageFromClasspath("/images/" + m.getName().trim() + ".jpg", 140, 120);
-        if (img == null)
-            img = loadImageFromClasspath("/images/Placeholder.jpg", 140, 120);
-        if (img == null)
-            img = new Image("file:src/resources/images/Placeholder.jpg", 140, 120, true, true, true);
-
-        ImageView iv = new ImageView(img);
+        ImageView iv = new ImageView();
         iv.setFitWidth(140);
         iv.setFitHeight(120);
         iv.setPreserveRatio(true);
+        bindImage(iv, m);
+        m.imagePathProperty().addListener((obs, o, n) -> bindImage(iv, m));
 
         Rectangle clip = new Rectangle(140, 120);
         clip.setArcWidth(16);
@@ -444,48 +537,57 @@ public class CustomerDashboard {
         return iv;
     }
 
-    private Image loadImageFromClasspath(String classpath, int w, int h) {
-        if (classpath == null) return null;
-        return imageCache.computeIfAbsent(classpath, k -> {
-            try {
-                URL url = getClass().getResource(k);
-                if (url != null) return new Image(url.toExternalForm(), w, h, true, true, true);
-            } catch (Exception ignored) { }
-            return null;
-        });
-    }
-
-    private Image loadImageFile(String path, int w, int h) {
-        return imageCache.computeIfAbsent(path, k ->
-                new Image("file:" + k, w, h, true, true, true));
+    private static void bindImage(ImageView iv, Medicine m) {
+        String byName = (m.getName() == null) ? null
+                : ImageCache.resourceUrl("/images/" + m.getName().trim() + ".jpg");
+        ImageCache.getInstance().bind(iv, 140, 120,
+                ImageCache.fileUrl(ImageStorage.bestFit(m.getImagePath(), 140, 120)), byName);
     }
 
     // === Cart ===
-    private void addToCart(Medicine medicine, int quantity) {
-        int alreadyInCart = cartData.stream()
-                .filter(oi -> oi.getMedicine() != null
-                        && oi.getMedicine().getId() == medicine.getId())
-                .mapToInt(OrderItem::getQuantity)
-                .sum();
-
-        int available = medicine.getQuantity() - alreadyInCart;
-        if (available <= 0) {
-            Alert a = new Alert(Alert.AlertType.WARNING,
-                    "This item is out of stock.");
-            a.setHeaderText("Out of Stock");
-            a.showAndWait();
-            return;
-        }
+    // Holds the stock for a while (StockReservations) so checkout can't fail for lack of it.
+    // The hold is a DB write that may wait on the writer lock, so it runs on IO, not the FX thread.
+    private void addToCart(Medicine medicine, int quantity, Runnable onDone) {
+        int userId = Session.isLoggedIn() ? Session.getCurrentUserId() : 0;
+        CompletableFuture
+                .supplyAsync(() -> StockReservations.getInstance().reserve(userId, medicine.getId(), quantity), IO)
+                .thenAccept(held -> Platform.runLater(() -> {
+                    try {
+                        if (!held.isReserved()) {
+                            if (held.available() <= 0) {
+                                Alert a = new Alert(Alert.AlertType.WARNING,
+                                        "This item is out of stock.");
+                                a.setHeaderText("Out of Stock");
+                                a.showAndWait();
+                            } else {
+                                Alert a = new Alert(Alert.AlertType.WARNING,
+                                        "Only " + held.available() + " units available. Adjust your quantity.");
+                                a.setHeaderText("Not enough stock");
+                                a.showAndWait();
+                            }
+                            return;
+                        }
+
+                        OrderItem item = new OrderItem(medicine, quantity);
+                        item.setReservationId(held.reservation().id());
+                        cartData.add(item);
+                        updateCartBadge();
+                    } finally {
+                        onDone.run();
+                    }
+                }));
+    }
 
-        if (quantity > available) {
-            Alert a = new Alert(Alert.AlertType.WARNING,
-                    "Only " + available + " units available. Adjust your quantity.");
-            a.setHeaderText("Not enough stock");
-            a.showAndWait();
-            return;
-        }
+    private static int availableOf(Medicine m) {
+        int a = StockReservations.getInstance().available(m.getId());
+        // Not in the catalog yet: fall back to the card's own quantity
+        return a >= 0 ? a : Math.max(0, m.getQuantity() - StockReservations.getInstance().held(m.getId()));
+    }
 
-        cartData.add(new OrderItem(medicine, quantity));
+    private void refreshAvailable(int medicineId) {
+        IntegerProperty p = availableById.get(medicineId);
+        Medicine m = renderedById.get(medicineId);
+        if (p != null && m != null) p.set(availableOf(m));
     }
 
     private void viewCart(Stage stage) {
@@ -493,6 +595,7 @@ public class CustomerDashboard {
     }
 
     // === Data refresh (async, throttled) ===
+    // Delta-refreshes the shared catalog and re-renders only if something changed.
     public void refreshMedicines() {
         long now = System.currentTimeMillis();
         if (now - lastRefreshMs < 1500) return;
@@ -501,7 +604,7 @@ public class CustomerDashboard {
         setStatus("Refreshing...");
         CompletableFuture.supplyAsync(() -> {
             try {
-                return medicineService.getAllMedicines();
+                return medicineService.refreshCatalog();
             } catch (AppException ex) {
                 FileLogger.error("Refresh failed: " + ex.getMessage(), ex);
                 return null;
@@ -509,13 +612,12 @@ public class CustomerDashboard {
                 FileLogger.error("Unexpected error: " + t.getMessage(), t);
                 return null;
             }
-        }).thenAccept(list -> Platform.runLater(() -> {
-            if (list != null) {
-                String sig = signature(list);
-                if (!sig.equals(lastDataSignature)) {
-                    lastDataSignature = sig;
-                    medicinesData.setAll(list);
+        }, IO).thenAccept(delta -> Platform.runLater(() -> {
+            if (delta != null) {
+                if (renderedCount == 0) {
                     refreshCategoryView();
+                } else {
+                    applyDelta(delta);
                 }
                 setStatus("Refreshed");
             } else {
@@ -524,21 +626,56 @@ public class CustomerDashboard {
         }));
     }
 
-    private static String signature(java.util.List<Medicine> list) {
-        StringBuilder sb = new StringBuilder();
-        for (Medicine m : list) {
-            sb.append(m.getId()).append('|')
-                    .append(nz(m.getName())).append('|')
-                    .append(nz(m.getCategory())).append('|')
-                    .append(m.getPrice()).append('|')
-                    .append(m.getQuantity()).append('|')
-                    .append(nz(m.getExpiryDate())).append('|')
-                    .append(nz(m.getImagePath())).append('\n');
+    /**
+     * Bring the cards on screen up to date with a catalog delta. Changed rows are
+     * patched through their Medicine properties; the view is only rebuilt when a
+     * row appears or disappears within the rendered range or moves in the order.
+     */
+    private void applyDelta(MedicineCatalog.Delta delta) {
+        if (delta.isEmpty()) return;
+        if (delta.full()) {
+            refreshCategoryView();
+            return;
+        }
+        for (Integer id : delta.deletes()) {
+            if (renderedById.containsKey(id)) {
+                refreshCategoryView();
+                return;
+            }
+        }
+        boolean desc = isPriceDescending();
+        for (MedicineCatalog.Item it : delta.upserts()) {
+            Medicine m = renderedById.get(it.id());
+            boolean reorders = (m == null)
+                    ? pagesExhausted || (nextCursor != null && sortsBefore(it, nextCursor, desc))
+                    : !safe(m.getCategory()).equals(safe(it.category())) || m.getPrice() != it.price();
+            if (reorders) {
+                refreshCategoryView();
+                return;
+            }
+        }
+        for (MedicineCatalog.Item it : delta.upserts()) {
+            Medicine m = renderedById.get(it.id());
+            if (m == null) continue; // not rendered yet; its page will be read fresh
+            m.setName(it.name());
+            m.setExpiryDate(it.expiry());
+            m.setImagePath(it.imagePath());
+            m.setQuantity(it.quantity());
         }
-        return sb.toString();
     }
 
-    private static String nz(String s) { return s == null ? "" : s; }
+    // Would the row land before the next page, i.e. inside what's already rendered?
+    private static boolean sortsBefore(MedicineCatalog.Item it, MedicineService.PageCursor c, boolean desc) {
+        int cmp = safe(it.category()).compareTo(safe(c.category()));
+        if (cmp == 0) cmp = Double.compare(it.price(), c.price()) * (desc ? -1 : 1);
+        if (cmp == 0) cmp = Integer.compare(it.id(), c.serialNumber()) * (desc ? -1 : 1);
+        return cmp < 0;
+    }
+
+    private boolean isPriceDescending() {
+        return "Sort by Price: High → Low".equals(sortBox != null ? sortBox.getValue() : null);
+    }
+
     private static String safe(String s) { return s == null ? "" : s; }
 
     private void setStatus(String text) {
@@ -658,32 +795,15 @@ public class CustomerDashboard {
 
 
     private ImageView loadIcon(String fileName) {
-        Image img = null;
-
-        // 1) Try from classpath: /images/<fileName>
-        try {
-            URL url = getClass().getResource("/images/" + fileName);
-            if (url != null) {
-                img = new Image(url.toExternalForm(), 24, 24, true, true, true);
-            }
-        } catch (Exception ignored) {}
-
-        // 2) Fallback: direct file path for IDE runs: src/resources/images/<fileName>
-        if (img == null || img.isError()) {
-            try {
-                img = new Image("file:src/resources/images/" + fileName, 24, 24, true, true, true);
-            } catch (Exception ignored) {}
-        }
-
-        // 3) Fallback placeholder
-        if (img == null || img.isError()) {
-            img = new Image("file:src/resources/images/Placeholder.jpg", 24, 24, true, true, true);
-        }
-
-        ImageView iv = new ImageView(img);
+        ImageView iv = new ImageView();
         iv.setFitWidth(24);
         iv.setFitHeight(24);
         iv.setPreserveRatio(true);
+
+        // classpath first (/images/<fileName>), then the source tree for IDE runs
+        ImageCache.getInstance().bind(iv, 24, 24,
+                ImageCache.resourceUrl("/images/" + fileName),
+                ImageCache.fileUrl("src/resources/images/" + fileName));
         return iv;
     }
 
@@ -6,7 +6,6 @@ import javafx.geometry.Rectangle2D;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.TextFormatter.Change;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.GridPane;
 import javafx.scene.paint.Color;
@@ -16,6 +15,7 @@ import javafx.stage.Stage;
 import models.Inventory;
 import models.Medicine;
 import services.MedicineService;
+import utils.ImageCache;
 import utils.ImageStorage;
 
 import java.io.File;
@@ -96,9 +96,7 @@ public class EditMedicineForm {
         """);
 
         if (medicine.getImagePath() != null && !medicine.getImagePath().isBlank()) {
-            try {
-                preview.setImage(new Image("file:" + medicine.getImagePath(), 150, 120, true, true));
-            } catch (Exception ignored) { }
+            ImageCache.getInstance().bind(preview, 150, 120, ImageCache.fileUrl(medicine.getImagePath()));
         }
 
         Button uploadBtn = new Button("Change Image");
@@ -110,7 +108,7 @@ public class EditMedicineForm {
             File f = fc.showOpenDialog(stage);
             if (f != null) {
                 chosenImage = f;
-                preview.setImage(new Image(f.toURI().toString(), 150, 120, true, true));
+                ImageCache.getInstance().bind(preview, 150, 120, ImageCache.fileUrl(f.getPath()));
             }
         });
 
@@ -13,7 +13,6 @@ import services.MedicineService;
 import utils.Session;
 
 import java.nio.file.Paths;
-import java.util.concurrent.CompletableFuture;
 
 public class LoginPage {
 
@@ -197,19 +196,24 @@ public class LoginPage {
         setButtonsDisabled(true);
         loggingIn = true;
 
-        CompletableFuture
-                .supplyAsync(() -> userService.login(email, pass))
-                .thenAccept(user -> Platform.runLater(() -> {
+        // BCrypt runs on the service's bounded password pool, not the common pool
+        userService.loginAsync(email, pass)
+                .thenAccept(result -> Platform.runLater(() -> {
                     try {
-                        if (user != null) {
-                            Session.setCurrentUser(user); // important for ProfileView etc.
-                            setMessage("Login successful!", "green");
-
-                            // Navigate to CustomerDashboard (reuse same Stage)
-                            Stage stage = (Stage) loginBtn.getScene().getWindow();
-                            new CustomerDashboard(inventory, new MedicineService()).show(stage);
-                        } else {
-                            setMessage("Invalid email or password!", "red");
+                        switch (result.status()) {
+                            case OK -> {
+                                Session.setCurrentUser(result.user()); // important for ProfileView etc.
+                                setMessage("Login successful!", "green");
+
+                                // Navigate to CustomerDashboard (reuse same Stage)
+                                Stage stage = (Stage) loginBtn.getScene().getWindow();
+                                new CustomerDashboard(inventory, new MedicineService()).show(stage);
+                            }
+                            case THROTTLED -> setMessage("Too many attempts. Try again in "
+                                    + Math.max(1, (result.retryAfterMs() + 999) / 1000) + " s.", "orange");
+                            case BUSY -> setMessage("Server is busy, please retry in a moment.", "orange");
+                            case ERROR -> setMessage("Login failed, please try again.", "red");
+                            default -> setMessage("Invalid email or password!", "red");
                         }
                     } finally {
                         setButtonsDisabled(false);
@@ -15,8 +15,6 @@ import services.MedicineService;
 import models.User;
 import utils.Session;
 
-import java.util.concurrent.*;
-
 public class LoginSignup {
 
     @FXML private TextField emailField;
@@ -31,14 +29,6 @@ public class LoginSignup {
     private Inventory inventory;
     private UserService userService;
 
-    // Reusable single-thread executor (avoids new thread startup cost every login)
-    private static final ExecutorService EXECUTOR =
-            Executors.newSingleThreadExecutor(r -> {
-                Thread t = new Thread(r, "LoginSignup-Worker");
-                t.setDaemon(true);
-                return t;
-            });
-
     // ---- Brand constants ----
     private static final String BTN_BASE = """
         -fx-background-radius: 10;
@@ -178,18 +168,13 @@ public class LoginSignup {
         setButtonsDisabled(true);
         setMessage("Logging in...", "#555");
 
-        CompletableFuture
-                .supplyAsync(() -> userService.login(email, password), EXECUTOR)
-                .whenCompleteAsync((user, ex) -> {
-                    Platform.runLater(() -> {
-                        try {
-                            if (ex != null) {
-                                setMessage("Error: " + ex.getMessage(), false);
-                                ex.printStackTrace();
-                                return;
-                            }
-                            if (user != null) {
-                                Session.setCurrentUser(user);
+        // BCrypt runs on the service's bounded password pool; BUSY means it refused the attempt
+        userService.loginAsync(email, password)
+                .thenAccept(result -> Platform.runLater(() -> {
+                    try {
+                        switch (result.status()) {
+                            case OK -> {
+                                Session.setCurrentUser(result.user());
                                 setMessage("Login successful!", true);
 
                                 Stage currentStage = (Stage) loginBtn.getScene().getWindow();
@@ -197,15 +182,18 @@ public class LoginSignup {
                                         inventory != null ? inventory : Inventory.getInstance(),
                                         new MedicineService()
                                 ).show(currentStage);
-                            } else {
-                                setMessage("Invalid email or password!", false);
                             }
-                        } finally {
-                            loggingIn = false;
-                            setButtonsDisabled(false);
+                            case THROTTLED -> setMessage("Too many attempts. Try again in "
+                                    + Math.max(1, (result.retryAfterMs() + 999) / 1000) + " s.", false);
+                            case BUSY -> setMessage("Server is busy, please retry in a moment.", false);
+                            case ERROR -> setMessage("Login failed, please try again.", false);
+                            default -> setMessage("Invalid email or password!", false);
                         }
-                    });
-                }, Platform::runLater);
+                    } finally {
+                        loggingIn = false;
+                        setButtonsDisabled(false);
+                    }
+                }));
     }
 
     private void openSignup() {
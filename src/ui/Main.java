@@ -10,6 +10,7 @@ import javafx.stage.Screen;
 import javafx.stage.Stage;
 import models.Inventory;
 import services.UserService;
+import utils.ImageStorage;
 
 import java.io.File;
 import java.net.URL;
@@ -81,6 +82,11 @@ public class Main extends Application {
 
             stage.setOnCloseRequest(e -> Platform.exit());
 
+            // One-off: thumbnails for images uploaded before thumbnails existed
+            ImageStorage.backfillThumbnailsAsync();
+            // Drop stored images no medicine/user points at any more
+            ImageStorage.collectGarbageAsync();
+
         } catch (Exception ex) {
             LOG.log(Level.SEVERE, "Failed to start application", ex);
             Platform.exit();
@@ -102,7 +102,7 @@ public class OrderHistoryView {
             ORDER BY oi.order_date DESC, oi.order_id DESC
         """;
 
-        try (Connection conn = DBHelper.getConnection();
+        try (Connection conn = DBHelper.getReadConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setInt(1, userId);
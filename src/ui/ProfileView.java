@@ -1,19 +1,21 @@
 package ui;
 
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
-import javafx.scene.SnapshotParameters;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import models.User;
+import services.PasswordHasher;
 import services.UserService;
 import utils.FileLogger;
+import utils.ImageCache;
+import utils.ImageStorage;
 import utils.Session;
 
 import java.io.File;
@@ -301,13 +303,22 @@ public class ProfileView {
                 return;
             }
 
-            boolean ok = userService.changePassword(currentRef[0].getId(), op, np);
-            if (ok) {
-                info("Password changed.");
-                oldPass.clear(); newPass.clear(); cnfPass.clear();
-            } else {
-                warn("Password change failed. Check your current password.");
-            }
+            // Check + hash run on the password pool; answer back on the FX thread
+            changePass.setDisable(true);
+            userService.changePasswordAsync(currentRef[0].getId(), op, np)
+                    .whenComplete((ok, ex) -> Platform.runLater(() -> {
+                        changePass.setDisable(false);
+                        if (ex != null) {
+                            warn(PasswordHasher.isBusy(ex)
+                                    ? "Server is busy, please retry in a moment."
+                                    : "Password change failed. Please try again.");
+                        } else if (ok) {
+                            info("Password changed.");
+                            oldPass.clear(); newPass.clear(); cnfPass.clear();
+                        } else {
+                            warn("Password change failed. Check your current password.");
+                        }
+                    }));
         });
     }
 
@@ -371,26 +382,9 @@ public class ProfileView {
     }
 
     private static void setAvatarImage(ImageView view, String path) {
-        try {
-            if (path != null && !path.isBlank()) {
-                Image img = new Image("file:" + path, 120, 120, true, true);
-                if (!img.isError()) {
-                    SnapshotParameters sp = new SnapshotParameters();
-                    sp.setFill(Color.TRANSPARENT);
-                    view.setImage(img);
-                    return;
-                }
-            }
-        } catch (Exception ignored) { }
-        try {
-            var res = ProfileView.class.getResource("/images/customer.png");
-            if (res != null) {
-                Image fallback = new Image(res.toExternalForm(), 120, 120, true, true);
-                view.setImage(fallback);
-                return;
-            }
-        } catch (Exception ignored) { }
-        view.setImage(null);
+        ImageCache.getInstance().bind(view, 120, 120,
+                ImageCache.fileUrl(ImageStorage.bestFit(path, 120, 120)),
+                ImageCache.resourceUrl("/images/customer.png"));
     }
 
     private static void info(String m){ new Alert(Alert.AlertType.INFORMATION, m, ButtonType.OK).showAndWait(); }
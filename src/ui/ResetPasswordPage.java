@@ -1,5 +1,6 @@
 package ui;
 
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -9,6 +10,7 @@ import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 import models.Inventory;
+import services.PasswordHasher;
 import services.UserService;
 
 /**
@@ -61,18 +63,25 @@ public class ResetPasswordPage {
                 return;
             }
 
-            boolean ok = type.equals("email")
-                    ? userService.updatePasswordByEmail(identifier, p1)
-                    : userService.updatePasswordByPhone(identifier, p1);
-
-            if (ok) {
-                msg.setTextFill(Color.GREEN);
-                msg.setText("Password updated. You can login now.");
-                goToLogin(stage);
-            } else {
-                msg.setTextFill(Color.RED);
-                msg.setText("Failed to update password.");
-            }
+            // Hash on the password pool; answer back on the FX thread
+            save.setDisable(true);
+            (type.equals("email")
+                    ? userService.updatePasswordByEmailAsync(identifier, p1)
+                    : userService.updatePasswordByPhoneAsync(identifier, p1))
+                    .whenComplete((ok, ex) -> Platform.runLater(() -> {
+                        save.setDisable(false);
+                        if (ex == null && ok) {
+                            msg.setTextFill(Color.GREEN);
+                            msg.setText("Password updated. You can login now.");
+                            goToLogin(stage);
+                        } else if (ex != null && PasswordHasher.isBusy(ex)) {
+                            msg.setTextFill(Color.ORANGE);
+                            msg.setText("Server is busy, please retry in a moment.");
+                        } else {
+                            msg.setTextFill(Color.RED);
+                            msg.setText("Failed to update password.");
+                        }
+                    }));
         });
 
         // --- Back Action ---
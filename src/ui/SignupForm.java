@@ -6,6 +6,7 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 import models.Inventory;
+import services.PasswordHasher;
 import services.UserService;
 import java.io.IOException;          // For handling I/O exceptions
 
@@ -177,7 +178,7 @@ public class SignupForm {
                 firstNameField, lastNameField, emailField,
                 passwordField, passwordTextField,
                 confirmPasswordField, confirmPasswordTextField,
-                phoneField, showPasswordCheck
+                phoneField, showPasswordCheck, signupBtn
         ));
         backBtn.setOnAction(e -> goBack());
 
@@ -236,7 +237,7 @@ public class SignupForm {
             TextField firstNameField, TextField lastNameField, TextField emailField,
             PasswordField passwordField, TextField passwordTextField,
             PasswordField confirmPasswordField, TextField confirmPasswordTextField,
-            TextField phoneField, CheckBox showPasswordCheck
+            TextField phoneField, CheckBox showPasswordCheck, Button signupBtn
     ) {
         String first = firstNameField.getText().trim();
         String last = lastNameField.getText().trim();
@@ -275,25 +276,34 @@ public class SignupForm {
             return;
         }
 
-        // Signup action (pass all required fields to the service)
-        boolean success = userService.signup(first, last, phone, email, pass);
-
-        // Handle success or failure
-        if (success) {
-            showMessage("Sign up successful!", "green");
-
-            // Wait for a moment and go back to the login page
-            new Thread(() -> {
-                try {
-                    Thread.sleep(2000); // Delay for 2 seconds to show the success message
-                    Platform.runLater(this::goBack); // Go back to login page
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }).start();
-        } else {
-            showMessage("Sign up failed. Please try again.", "red");
-        }
+        // Signup action: hashing runs on the password pool, the answer comes back on the FX thread
+        signupBtn.setDisable(true);
+        userService.signupAsync(first, last, phone, email, pass)
+                .whenComplete((success, ex) -> Platform.runLater(() -> {
+                    signupBtn.setDisable(false);
+                    if (ex != null) {
+                        if (PasswordHasher.isBusy(ex)) showMessage("Server is busy, please retry in a moment.", "orange");
+                        else showMessage("Sign up failed. Please try again.", "red");
+                        return;
+                    }
+
+                    // Handle success or failure
+                    if (success) {
+                        showMessage("Sign up successful!", "green");
+
+                        // Wait for a moment and go back to the login page
+                        new Thread(() -> {
+                            try {
+                                Thread.sleep(2000); // Delay for 2 seconds to show the success message
+                                Platform.runLater(this::goBack); // Go back to login page
+                            } catch (InterruptedException e) {
+                                e.printStackTrace();
+                            }
+                        }).start();
+                    } else {
+                        showMessage("Sign up failed. Please try again.", "red");
+                    }
+                }));
     }
 
     private void goBack() {
@@ -0,0 +1,243 @@
+package utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed-size SQLite pool: one writer connection and N reader connections.
+ * Physical connections are opened (and configured) once; callers receive
+ * lightweight handles whose close() returns the connection to the pool.
+ */
+final class ConnectionPool {
+
+    /** Opens and configures one physical connection. */
+    @FunctionalInterface
+    interface Opener {
+        Connection open(boolean writer) throws SQLException;
+    }
+
+    private final Opener opener;
+    private final long waitMs;
+    private final int statementCacheSize;
+
+    // One statement cache per physical connection
+    private final Map<Connection, StatementCache> caches =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    // Writer is re-entrant per thread (e.g. login -> rehash -> update)
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private Connection writer;
+
+    private final BlockingQueue<Connection> idleReaders;
+    private final List<Connection> allReaders = new ArrayList<>();
+
+    private volatile boolean closed;
+
+    ConnectionPool(Opener opener, int readers, long waitMs, int statementCacheSize) throws SQLException {
+        this.opener = opener;
+        this.waitMs = waitMs;
+        this.statementCacheSize = statementCacheSize;
+        this.writer = open(true);
+        this.idleReaders = new ArrayBlockingQueue<>(Math.max(1, readers));
+        for (int i = 0; i < Math.max(1, readers); i++) {
+            Connection r = open(false);
+            allReaders.add(r);
+            idleReaders.add(r);
+        }
+    }
+
+    /* =======================
+       Borrow
+       ======================= */
+
+    Connection borrowWriter() throws SQLException {
+        ensureOpen();
+        try {
+            if (!writerLock.tryLock(waitMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for the writer connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for the writer connection", e);
+        }
+        try {
+            if (writer.isClosed()) {
+                discard(writer);
+                writer = open(true);
+            }
+            return handle(writer, true);
+        } catch (SQLException | RuntimeException e) {
+            writerLock.unlock();
+            throw e;
+        }
+    }
+
+    Connection borrowReader() throws SQLException {
+        ensureOpen();
+        Connection c;
+        try {
+            c = idleReaders.poll(waitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a reader connection", e);
+        }
+        if (c == null) throw new SQLException("Timed out waiting for a reader connection");
+        try {
+            if (c.isClosed()) c = replaceReader(c);
+            return handle(c, false);
+        } catch (SQLException | RuntimeException e) {
+            idleReaders.offer(c);
+            throw e;
+        }
+    }
+
+    /* =======================
+       Release
+       ======================= */
+
+    private void release(Connection physical, boolean isWriter) {
+        if (isWriter) {
+            try {
+                // Only the outermost handle resets transaction state
+                if (writerLock.getHoldCount() == 1) reset(physical);
+            } finally {
+                writerLock.unlock();
+            }
+        } else {
+            reset(physical);
+            if (!closed) idleReaders.offer(physical);
+        }
+    }
+
+    private static void reset(Connection c) {
+        try {
+            if (!c.isClosed() && !c.getAutoCommit()) {
+                c.rollback();            // caller forgot to commit -> never leak a txn
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error resetting pooled connection: " + e.getMessage());
+        }
+    }
+
+    private Connection open(boolean isWriter) throws SQLException {
+        Connection c = opener.open(isWriter);
+        caches.put(c, new StatementCache(c, statementCacheSize));
+        return c;
+    }
+
+    private void discard(Connection c) {
+        StatementCache cache = caches.remove(c);
+        if (cache != null) cache.closeAll();
+        closeQuietly(c);
+    }
+
+    private synchronized Connection replaceReader(Connection dead) throws SQLException {
+        discard(dead);
+        Connection fresh = open(false);
+        allReaders.remove(dead);
+        allReaders.add(fresh);
+        return fresh;
+    }
+
+    /* =======================
+       Shutdown
+       ======================= */
+
+    synchronized void close() {
+        closed = true;
+        discard(writer);
+        for (Connection c : allReaders) discard(c);
+        allReaders.clear();
+        idleReaders.clear();
+    }
+
+    boolean isClosed() { return closed; }
+
+    int cachedStatementCount() {
+        synchronized (caches) {
+            return caches.values().stream().mapToInt(StatementCache::size).sum();
+        }
+    }
+
+    /** Statement cache behind a pooled handle, or null for foreign connections. */
+    static StatementCache cacheOf(Connection handle) {
+        if (handle != null && Proxy.isProxyClass(handle.getClass())
+                && Proxy.getInvocationHandler(handle) instanceof Handle h) {
+            return h.released ? null : h.owner().caches.get(h.physical);
+        }
+        return null;
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+    }
+
+    private static void closeQuietly(Connection c) {
+        try { if (c != null && !c.isClosed()) c.close(); } catch (SQLException ignored) {}
+    }
+
+    /* =======================
+       Logical connection handle
+       ======================= */
+
+    private Connection handle(Connection physical, boolean isWriter) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new Handle(physical, isWriter));
+    }
+
+    private final class Handle implements InvocationHandler {
+        private final Connection physical;
+        private final boolean isWriter;
+        private boolean released;
+
+        Handle(Connection physical, boolean isWriter) {
+            this.physical = physical;
+            this.isWriter = isWriter;
+        }
+
+        ConnectionPool owner() { return ConnectionPool.this; }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        release(physical, isWriter);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + (isWriter ? "Writer" : "Reader") + "[" + physical + "]";
+                default:
+                    if (released) throw new SQLException("Connection handle already closed");
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
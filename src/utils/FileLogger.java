@@ -1,34 +1,420 @@
-// src/utils/FileLogger.java
 package utils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.time.LocalDateTime;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Asynchronous file logger.
+ *
+ * Callers only drop an event into a lock-free ring; a single writer thread
+ * formats events into a buffer and writes it to one long-lived FileChannel
+ * when the buffer fills (log.flush.kb) or log.flush.ms have passed. When the
+ * ring is full the event is dropped (log.overflow=drop, counted and reported)
+ * or the caller waits for room (log.overflow=block). Everything still queued
+ * is written and synced by a shutdown hook.
+ *
+ * app.log is rolled by size and by day (see {@link LogRotator}); the rename
+ * happens on the writer thread, compression and retention elsewhere.
+ *
+ * Output is JSON lines by default (log.format=json, or text for the old
+ * "[ts][LEVEL] msg" lines). Events below log.level are discarded before
+ * anything is allocated. Messages take SLF4J-style "{}" placeholders and
+ * structured fields via {@link #at(Level)}:
+ *
+ *   FileLogger.at(Level.INFO).op("updateQuantity").field("medicineId", id)
+ *             .latencySince(t0).log("Updated quantity to {}", qty);
+ *
+ * Placeholder substitution, JSON encoding and stack traces are all done on
+ * the writer thread, so arguments are captured by reference; pass values,
+ * not objects that are about to change. A trailing Throwable argument that
+ * no placeholder consumes is logged as the event's exception.
+ */
 public class FileLogger {
     private static final Path LOG_DIR = Paths.get("logs");
     private static final Path LOG_FILE = LOG_DIR.resolve("app.log");
-    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter TS =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter TS_JSON =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").withZone(ZoneId.systemDefault());
+    private static final byte[] NL = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static final LogRing<Event> RING =
+            new LogRing<>(Integer.parseInt(ConfigManager.get("log.buffer.entries", "8192")));
+    private static final boolean BLOCK_WHEN_FULL =
+            "block".equalsIgnoreCase(ConfigManager.get("log.overflow", "drop"));
+    private static final long FLUSH_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.parseLong(ConfigManager.get("log.flush.ms", "200")));
+    private static final int FLUSH_BYTES = Integer.parseInt(ConfigManager.get("log.flush.kb", "64")) * 1024;
+
+    private static final Level THRESHOLD = Level.parse(ConfigManager.get("log.level", "INFO"));
+    private static final boolean JSON = !"text".equalsIgnoreCase(ConfigManager.get("log.format", "json"));
+
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static volatile boolean writerSleeping;
+    private static volatile boolean stopping;
+    private static final Thread WRITER;
+
+    private static final LogRotator ROTATOR = new LogRotator(LOG_DIR);
+
+    // Writer thread only
+    private static FileChannel channel;
+    private static long channelSize;
+    private static final ByteBuffer BUF = ByteBuffer.allocateDirect(Math.max(8 * 1024, FLUSH_BYTES));
+    private static final StringBuilder LINE = new StringBuilder(256);
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR;
+
+        static Level parse(String s) {
+            try {
+                return valueOf(s.trim().toUpperCase(Locale.ROOT));
+            } catch (RuntimeException e) {
+                return INFO;
+            }
+        }
+    }
+
+    // fields = key0, value0, key1, value1, ... (fieldCount pairs)
+    private record Event(long millis, Level level, String thread, String pattern, Object[] args,
+                         Object[] fields, int fieldCount, Throwable t) {}
 
     static {
         try { Files.createDirectories(LOG_DIR); } catch (IOException ignored) {}
+        WRITER = new Thread(FileLogger::drainLoop, "FileLogger-Writer");
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(FileLogger::shutdown, "FileLogger-Shutdown"));
+        ROTATOR.sweepAsync();
+    }
+
+    /* =======================
+       API
+       ======================= */
+
+    public static boolean isEnabled(Level level) { return level.compareTo(THRESHOLD) >= 0; }
+
+    public static void debug(String pattern, Object... args) { log(Level.DEBUG, pattern, args, null, 0); }
+
+    public static void info(String msg) { logRaw(Level.INFO, msg, null); }
+    public static void info(String pattern, Object... args) { log(Level.INFO, pattern, args, null, 0); }
+
+    public static void warn(String msg) { logRaw(Level.WARN, msg, null); }
+    public static void warn(String pattern, Object... args) { log(Level.WARN, pattern, args, null, 0); }
+
+    public static void error(String msg, Throwable t) { logRaw(Level.ERROR, msg, t); }
+    public static void error(String pattern, Object... args) { log(Level.ERROR, pattern, args, null, 0); }
+
+    /**
+     * Start a structured event. Returns a shared no-op when level is filtered,
+     * so a disabled call costs one comparison and no allocation.
+     */
+    public static Entry at(Level level) {
+        return isEnabled(level) ? new Entry(level) : Entry.DISABLED;
+    }
+
+    /** Structured event under construction; finish with {@link #log}. Not thread-safe. */
+    public static class Entry {
+        static final Entry DISABLED = new Entry(null);
+
+        private final Level level;
+        private Object[] fields;
+        private int count;
+
+        private Entry(Level level) { this.level = level; }
+
+        public Entry op(String op) { return field("op", op); }
+
+        public Entry field(String key, Object value) {
+            if (level == null) return this;
+            if (fields == null) fields = new Object[8];
+            else if (count * 2 == fields.length) fields = Arrays.copyOf(fields, fields.length * 2);
+            fields[count * 2] = key;
+            fields[count * 2 + 1] = value;
+            count++;
+            return this;
+        }
+
+        public Entry latencyMs(long ms) { return field("latencyMs", ms); }
+
+        /** latencyMs measured from a System.nanoTime() taken at the start of the operation. */
+        public Entry latencySince(long startNanos) {
+            return level == null ? this : latencyMs((System.nanoTime() - startNanos) / 1_000_000);
+        }
+
+        public void log(String pattern, Object... args) {
+            if (level != null) FileLogger.log(level, pattern, args, fields, count);
+        }
+    }
+
+    // Pre-built message: never scanned for placeholders
+    private static void logRaw(Level level, String msg, Throwable t) {
+        if (!isEnabled(level)) return;
+        write(new Event(System.currentTimeMillis(), level, Thread.currentThread().getName(),
+                msg, null, null, 0, t));
+    }
+
+    private static void log(Level level, String pattern, Object[] args, Object[] fields, int fieldCount) {
+        if (!isEnabled(level)) return;
+        Throwable t = null;
+        if (args != null && args.length > 0 && args[args.length - 1] instanceof Throwable th
+                && placeholders(pattern) < args.length) {
+            t = th;
+        }
+        write(new Event(System.currentTimeMillis(), level, Thread.currentThread().getName(),
+                pattern, args, fields, fieldCount, t));
+    }
+
+    private static void write(Event e) {
+        if (stopping) {
+            writeDirect(e); // writer is gone; late messages (other shutdown hooks) go straight to disk
+            return;
+        }
+        while (!RING.offer(e)) {
+            if (!BLOCK_WHEN_FULL) {
+                DROPPED.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(WRITER);
+            LockSupport.parkNanos(50_000);
+            if (stopping) {
+                writeDirect(e);
+                return;
+            }
+        }
+        // Writer batches on its own schedule; only wake it for errors or a filling ring
+        if (writerSleeping && (e.t != null || RING.size() > RING.capacity() / 2)) {
+            LockSupport.unpark(WRITER);
+        }
+    }
+
+    private static int placeholders(String pattern) {
+        if (pattern == null) return 0;
+        int n = 0;
+        for (int i = pattern.indexOf("{}"); i >= 0; i = pattern.indexOf("{}", i + 2)) n++;
+        return n;
+    }
+
+    /* =======================
+       Writer thread
+       ======================= */
+
+    private static void drainLoop() {
+        long lastFlush = System.nanoTime();
+        while (true) {
+            boolean drained = false;
+            Event e;
+            while ((e = RING.poll()) != null) {
+                append(e);
+                drained = true;
+            }
+            reportDropped();
+
+            long now = System.nanoTime();
+            if (BUF.position() > 0 && now - lastFlush >= FLUSH_NANOS) {
+                flush();
+                lastFlush = now;
+            }
+            if (drained) continue;
+            if (stopping) break;
+
+            writerSleeping = true;
+            if (RING.isEmpty()) {
+                long wait = BUF.position() > 0 ? FLUSH_NANOS - (now - lastFlush) : FLUSH_NANOS;
+                LockSupport.parkNanos(Math.max(wait, 1_000_000));
+            }
+            writerSleeping = false;
+        }
+        Event e;
+        while ((e = RING.poll()) != null) append(e);
+        reportDropped();
+        flush();
+        try { if (channel != null) channel.force(false); } catch (IOException ignored) {}
+    }
+
+    /* =======================
+       Formatting (writer thread)
+       ======================= */
+
+    private static void append(Event e) {
+        LINE.setLength(0);
+        String stack = e.t == null ? null : stackTrace(e.t);
+        if (JSON) {
+            LINE.append("{\"ts\":\"").append(TS_JSON.format(Instant.ofEpochMilli(e.millis)))
+                .append("\",\"level\":\"").append(e.level)
+                .append("\",\"thread\":");
+            jsonString(e.thread);
+            LINE.append(",\"msg\":");
+            int mark = LINE.length();
+            formatMessage(e);
+            jsonEscapeFrom(mark);
+            for (int i = 0; i < e.fieldCount; i++) {
+                LINE.append(',');
+                jsonString(String.valueOf(e.fields[i * 2]));
+                LINE.append(':');
+                jsonValue(e.fields[i * 2 + 1]);
+            }
+            if (e.t != null) {
+                LINE.append(",\"error\":");
+                jsonString(String.valueOf(e.t));
+                LINE.append(",\"stack\":");
+                jsonString(stack);
+            }
+            LINE.append('}');
+            put(LINE.toString().getBytes(StandardCharsets.UTF_8));
+            put(NL);
+        } else {
+            LINE.append('[').append(TS.format(Instant.ofEpochMilli(e.millis))).append("][")
+                .append(e.level).append("] ");
+            formatMessage(e);
+            for (int i = 0; i < e.fieldCount; i++) {
+                LINE.append(' ').append(e.fields[i * 2]).append('=').append(e.fields[i * 2 + 1]);
+            }
+            put(LINE.toString().getBytes(StandardCharsets.UTF_8));
+            put(NL);
+            if (stack != null) {
+                put(stack.getBytes(StandardCharsets.UTF_8));
+                put(NL);
+            }
+        }
+    }
+
+    // Substitute {} placeholders in order; unused arguments are ignored
+    private static void formatMessage(Event e) {
+        String p = e.pattern == null ? "null" : e.pattern;
+        Object[] args = e.args;
+        if (args == null || args.length == 0) {
+            LINE.append(p);
+            return;
+        }
+        int from = 0, argIdx = 0;
+        for (int i = p.indexOf("{}"); i >= 0 && argIdx < args.length; i = p.indexOf("{}", from)) {
+            LINE.append(p, from, i);
+            Object a = args[argIdx++];
+            LINE.append(a instanceof Object[] arr ? Arrays.deepToString(arr) : String.valueOf(a));
+            from = i + 2;
+        }
+        LINE.append(p, from, p.length());
+    }
+
+    private static String stackTrace(Throwable t) {
+        StringWriter sw = new StringWriter();
+        t.printStackTrace(new PrintWriter(sw));
+        return sw.toString().stripTrailing();
+    }
+
+    private static void jsonValue(Object v) {
+        if (v == null) LINE.append("null");
+        else if (v instanceof Boolean || (v instanceof Number n && Double.isFinite(n.doubleValue()))) LINE.append(v);
+        else jsonString(String.valueOf(v));
+    }
+
+    private static void jsonString(String s) {
+        int mark = LINE.length();
+        LINE.append(s == null ? "null" : s);
+        if (s == null) return;
+        jsonEscapeFrom(mark);
+    }
+
+    // Quote and escape LINE[from..] in place
+    private static void jsonEscapeFrom(int from) {
+        String raw = LINE.substring(from);
+        LINE.setLength(from);
+        LINE.append('"');
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            switch (c) {
+                case '"' -> LINE.append("\\\"");
+                case '\\' -> LINE.append("\\\\");
+                case '\n' -> LINE.append("\\n");
+                case '\r' -> LINE.append("\\r");
+                case '\t' -> LINE.append("\\t");
+                default -> {
+                    if (c < 0x20) LINE.append(String.format("\\u%04x", (int) c));
+                    else LINE.append(c);
+                }
+            }
+        }
+        LINE.append('"');
     }
 
-    public static void info(String msg) { write("INFO", msg, null); }
-    public static void warn(String msg) { write("WARN", msg, null); }
-    public static void error(String msg, Throwable t) { write("ERROR", msg, t); }
+    private static void put(byte[] bytes) {
+        if (bytes.length > BUF.remaining()) flush();
+        if (bytes.length > BUF.capacity()) {
+            writeFully(ByteBuffer.wrap(bytes));
+            return;
+        }
+        BUF.put(bytes);
+        if (BUF.position() >= FLUSH_BYTES) flush();
+    }
 
-    private static synchronized void write(String level, String msg, Throwable t) {
-        String line = "[" + TS.format(LocalDateTime.now()) + "][" + level + "] " + msg + System.lineSeparator();
-        try (FileWriter fw = new FileWriter(LOG_FILE.toFile(), true)) {
-            fw.write(line);
-            if (t != null) {
-                StringWriter sw = new StringWriter();
-                t.printStackTrace(new PrintWriter(sw));
-                fw.write(sw.toString());
-                fw.write(System.lineSeparator());
+    private static void flush() {
+        if (BUF.position() == 0) return;
+        BUF.flip();
+        writeFully(BUF);
+        BUF.clear();
+    }
+
+    private static void writeFully(ByteBuffer src) {
+        try {
+            if (channel == null || !channel.isOpen()) {
+                openChannel();
+                ROTATOR.opened(LOG_FILE, channelSize);
+            }
+            if (ROTATOR.shouldRoll(channelSize, src.remaining())) {
+                channel.close();
+                ROTATOR.roll(LOG_FILE);
+                openChannel();
             }
-        } catch (IOException ignored) {}
+            while (src.hasRemaining()) channelSize += channel.write(src);
+        } catch (IOException ex) {
+            src.position(src.limit()); // can't log the logger's own failure; drop this batch
+            System.err.println("FileLogger write failed: " + ex.getMessage());
+        }
+    }
+
+    private static void openChannel() throws IOException {
+        channel = FileChannel.open(LOG_FILE,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channelSize = channel.size();
+    }
+
+    private static void reportDropped() {
+        long n = DROPPED.getAndSet(0);
+        if (n > 0) append(new Event(System.currentTimeMillis(), Level.WARN, Thread.currentThread().getName(),
+                "FileLogger dropped {} message(s): buffer full", new Object[]{n}, null, 0, null));
+    }
+
+    /* =======================
+       Shutdown
+       ======================= */
+
+    private static void shutdown() {
+        stopping = true;
+        LockSupport.unpark(WRITER);
+        try {
+            WRITER.join(2000);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Only after shutdown: the writer thread has finished, so the channel is ours
+    private static synchronized void writeDirect(Event e) {
+        if (WRITER.isAlive()) {
+            try { WRITER.join(2000); } catch (InterruptedException ignored) {}
+        }
+        append(e);
+        flush();
     }
 }
@@ -0,0 +1,202 @@
+package utils;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shared, byte-budgeted LRU of decoded images.
+ *
+ * - Images are decoded off the FX thread, already scaled to the requested size.
+ * - Concurrent requests for the same image share one decode.
+ * - Placeholder handling lives here so screens don't each roll their own.
+ *
+ * Keys are (url, width, height); sources are plain URL strings, see
+ * {@link #fileUrl(String)} and {@link #resourceUrl(String)}.
+ */
+public final class ImageCache {
+
+    private static final String PLACEHOLDER = "/images/Placeholder.png";
+    private static final String PLACEHOLDER_DEV = "src/resources/images/Placeholder.png";
+    private static final String VIEW_KEY = "imagecache.key";
+
+    private static final ImageCache INSTANCE = new ImageCache(
+            Long.parseLong(ConfigManager.get("image.cache.mb", "64")) * 1024 * 1024);
+
+    public static ImageCache getInstance() { return INSTANCE; }
+
+    private final long budgetBytes;
+    private long usedBytes;
+    private final LinkedHashMap<String, Image> lru = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, CompletableFuture<Image>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Image> placeholders = new ConcurrentHashMap<>();
+
+    private final ExecutorService decoder = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "ImageCache-Decode");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private ImageCache(long budgetBytes) {
+        this.budgetBytes = Math.max(1, budgetBytes);
+    }
+
+    /* =======================
+       Sources
+       ======================= */
+
+    /** URL for an image file on disk, or null if it doesn't exist. */
+    public static String fileUrl(String path) {
+        if (path == null || path.isBlank()) return null;
+        File f = new File(path.trim());
+        return f.isFile() ? f.toURI().toString() : null;
+    }
+
+    /** URL for a classpath image (e.g. "/images/cart.png"), or null if missing. */
+    public static String resourceUrl(String classpath) {
+        if (classpath == null) return null;
+        URL url = ImageCache.class.getResource(classpath);
+        return url == null ? null : url.toExternalForm();
+    }
+
+    /* =======================
+       Loading
+       ======================= */
+
+    /** Cached image if already decoded at this size, else null (never blocks). */
+    public synchronized Image getIfPresent(String url, int w, int h) {
+        return url == null ? null : lru.get(key(url, w, h));
+    }
+
+    /**
+     * Decode (or reuse) url at w x h. Completes with null if the image can't be read.
+     */
+    public CompletableFuture<Image> load(String url, int w, int h) {
+        if (url == null) return CompletableFuture.completedFuture(null);
+        String key = key(url, w, h);
+        Image hit = getIfPresent(url, w, h);
+        if (hit != null) return CompletableFuture.completedFuture(hit);
+
+        CompletableFuture<Image> created = new CompletableFuture<>();
+        CompletableFuture<Image> pending = inFlight.putIfAbsent(key, created);
+        if (pending != null) return pending; // someone is already decoding it
+
+        decoder.execute(() -> {
+            Image img = decode(url, w, h);
+            if (img != null) put(key, img);
+            inFlight.remove(key, created);
+            created.complete(img);
+        });
+        return created;
+    }
+
+    /**
+     * Show the first readable source in view. The placeholder is shown
+     * immediately; the real image is swapped in on the FX thread once decoded,
+     * unless the view has been re-bound to something else in the meantime.
+     */
+    public void bind(ImageView view, int w, int h, String... urls) {
+        String wanted = Arrays.toString(urls) + "@" + w + "x" + h;
+        view.getProperties().put(VIEW_KEY, wanted);
+
+        // Fast path: first source already decoded
+        for (String url : urls) {
+            if (url == null) continue;
+            Image hit = getIfPresent(url, w, h);
+            if (hit != null) {
+                view.setImage(hit);
+                return;
+            }
+            break;
+        }
+        view.setImage(placeholder(w, h));
+
+        loadFirst(urls, 0, w, h).thenAccept(img -> {
+            if (img == null) return;
+            Platform.runLater(() -> {
+                if (wanted.equals(view.getProperties().get(VIEW_KEY))) view.setImage(img);
+            });
+        });
+    }
+
+    private CompletableFuture<Image> loadFirst(String[] urls, int i, int w, int h) {
+        if (i >= urls.length) return CompletableFuture.completedFuture(null);
+        return load(urls[i], w, h).thenCompose(img ->
+                img != null ? CompletableFuture.completedFuture(img) : loadFirst(urls, i + 1, w, h));
+    }
+
+    /** Placeholder scaled to w x h (decoded once per size, never evicted). */
+    public Image placeholder(int w, int h) {
+        return placeholders.computeIfAbsent(w + "x" + h, k -> {
+            String url = resourceUrl(PLACEHOLDER);
+            if (url == null) url = fileUrl(PLACEHOLDER_DEV);
+            if (url == null) return null;
+            Image img = new Image(url, w, h, true, true, false);
+            return img.isError() ? null : img;
+        });
+    }
+
+    /** Forget every cached size of url (e.g. a file overwritten in place). */
+    public synchronized void invalidate(String url) {
+        if (url == null) return;
+        String prefix = url + "@";
+        Iterator<Map.Entry<String, Image>> it = lru.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Image> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                usedBytes -= bytesOf(e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized String stats() {
+        return "images=" + lru.size() + " bytes=" + usedBytes + "/" + budgetBytes;
+    }
+
+    /* =======================
+       Internals
+       ======================= */
+
+    private static Image decode(String url, int w, int h) {
+        try {
+            Image img = new Image(url, w, h, true, true, false); // synchronous, we're off the FX thread
+            return img.isError() ? null : img;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private synchronized void put(String key, Image img) {
+        Image old = lru.put(key, img);
+        if (old != null) usedBytes -= bytesOf(old);
+        usedBytes += bytesOf(img);
+
+        Iterator<Image> it = lru.values().iterator();
+        while (usedBytes > budgetBytes && it.hasNext()) {
+            Image eldest = it.next();
+            if (eldest == img) break; // never evict what we just added
+            usedBytes -= bytesOf(eldest);
+            it.remove();
+        }
+    }
+
+    private static long bytesOf(Image img) {
+        return (long) img.getWidth() * (long) img.getHeight() * 4L; // decoded as 32-bit ARGB
+    }
+
+    private static String key(String url, int w, int h) {
+        return url + "@" + w + "x" + h;
+    }
+}
@@ -1,13 +1,61 @@
 package utils;
 
+import utils.FileLogger.Level;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Locale;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
+/**
+ * Content-addressed image store.
+ *
+ * Files are named by the SHA-256 of their bytes and sharded two levels deep
+ * (images/ab/cd/abcd....png), so uploading the same picture twice yields the
+ * same absolute path. Nothing tracks counts on disk: an image is referenced
+ * while medicines.image_path or users.avatar_path points at it, and
+ * {@link #collectGarbage()} removes sharded files nobody points at any more.
+ */
 public class ImageStorage {
 
+    // Thumbnail boxes generated at ingest: product card (140x120) and small list/avatar size (48x48).
+    // Sorted smallest first so bestFit() picks the cheapest variant that is big enough.
+    private static final int[][] THUMB_SIZES = { {48, 48}, {140, 120} };
+    private static final Pattern THUMB_NAME = Pattern.compile(".*_\\d+x\\d+\\.png$");
+    private static final String BACKFILL_MARKER = ".thumbs_v1";
+    private static final AtomicBoolean BACKFILL_STARTED = new AtomicBoolean();
+    private static final AtomicBoolean GC_RUNNING = new AtomicBoolean();
+    private static final Pattern HASH_NAME = Pattern.compile("[0-9a-f]{64}(\\.[a-z0-9]+)?$");
+
+    // Files younger than this are never collected: the row pointing at a fresh
+    // upload is written after saveImage() returns.
+    private static final long GC_GRACE_MS = 60L * 60 * 1000;
+
     // App-local folder (next to DB or under user.home)
     public static File imagesDir() {
         File base = new File("medimart_data/images");
@@ -15,18 +63,269 @@ public class ImageStorage {
         return base;
     }
 
+    /**
+     * Store source under its content hash and return the absolute path to keep in the DB.
+     * Identical bytes always map to the same path; an existing copy is reused.
+     */
     public static String saveImage(File source) throws IOException {
         if (source == null || !source.exists()) return null;
         String ext = extOf(source.getName());
-        String fileName = UUID.randomUUID().toString().replace("-", "") + (ext == null ? "" : "." + ext);
-        File dest = new File(imagesDir(), fileName);
-        Files.copy(source.toPath(), dest.toPath());
-        return dest.getAbsolutePath(); // store absolute path in DB (simple + robust)
+
+        // Hash while copying into a temp file in the store, so the final move stays on one volume
+        File dir = imagesDir();
+        Path tmp = Files.createTempFile(dir.toPath(), ".upload", ".tmp");
+        String hash;
+        try {
+            MessageDigest md = sha256();
+            try (InputStream in = Files.newInputStream(source.toPath());
+                 OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), md)) {
+                in.transferTo(out);
+            }
+            hash = HexFormat.of().formatHex(md.digest());
+
+            File dest = pathFor(hash, ext);
+            if (dest.isFile()) {
+                dest.setLastModified(System.currentTimeMillis()); // keep it out of a concurrent GC pass
+            } else {
+                dest.getParentFile().mkdirs();
+                try {
+                    Files.move(tmp, dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (!hasAllThumbnails(dest)) {
+                try {
+                    generateThumbnails(dest);
+                } catch (IOException e) {
+                    FileLogger.at(Level.WARN).op("thumbnail").field("file", dest.getName())
+                            .log("Thumbnail generation failed", e);
+                }
+            }
+            return dest.getAbsolutePath(); // store absolute path in DB (simple + robust)
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Where content with this hash lives: images/ab/cd/<hash>.<ext>. */
+    private static File pathFor(String hash, String ext) {
+        File shard = new File(new File(imagesDir(), hash.substring(0, 2)), hash.substring(2, 4));
+        return new File(shard, hash + (ext == null ? "" : "." + ext));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // mandatory in every JRE
+        }
+    }
+
+    /* =======================
+       Thumbnails
+       ======================= */
+
+    /**
+     * Path of the smallest stored variant that covers a w x h box, falling back
+     * to the original. Safe to call with null or missing paths.
+     */
+    public static String bestFit(String originalPath, int w, int h) {
+        if (originalPath == null || originalPath.isBlank()) return originalPath;
+        File original = new File(originalPath.trim());
+        for (int[] size : THUMB_SIZES) {
+            if (size[0] >= w && size[1] >= h) {
+                File thumb = thumbFile(original, size[0], size[1]);
+                if (thumb.isFile()) return thumb.getAbsolutePath();
+            }
+        }
+        return originalPath;
+    }
+
+    /** Write every thumbnail size next to original (overwrites existing ones). */
+    public static void generateThumbnails(File original) throws IOException {
+        BufferedImage src = ImageIO.read(original);
+        if (src == null) throw new IOException("Unsupported image format: " + original.getName());
+        for (int[] size : THUMB_SIZES) {
+            BufferedImage scaled = scaleToFit(src, size[0], size[1]);
+            ImageIO.write(scaled, "png", thumbFile(original, size[0], size[1]));
+        }
+    }
+
+    /**
+     * One-off: create missing thumbnails for images stored before thumbnails existed.
+     * Runs at most once per install (marker file), on a background thread.
+     */
+    public static void backfillThumbnailsAsync() {
+        File marker = new File(imagesDir(), BACKFILL_MARKER);
+        if (marker.exists() || !BACKFILL_STARTED.compareAndSet(false, true)) return;
+        Thread t = new Thread(() -> {
+            int made = backfillThumbnails();
+            try {
+                marker.createNewFile();
+            } catch (IOException ignored) {}
+            FileLogger.at(Level.INFO).op("thumbnailBackfill").field("processed", made).log("Thumbnail backfill done");
+        }, "ImageStorage-Backfill");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /** Generate thumbnails for every stored original that lacks them; returns how many were processed. */
+    public static int backfillThumbnails() {
+        File[] files = imagesDir().listFiles(File::isFile);
+        if (files == null) return 0;
+        int made = 0;
+        for (File f : files) {
+            if (f.getName().startsWith(".") || THUMB_NAME.matcher(f.getName()).matches()) continue;
+            if (hasAllThumbnails(f)) continue;
+            try {
+                generateThumbnails(f);
+                made++;
+            } catch (IOException e) {
+                FileLogger.at(Level.WARN).op("thumbnailBackfill").field("file", f.getName())
+                        .log("Thumbnail backfill skipped file", e);
+            }
+        }
+        return made;
+    }
+
+    private static boolean hasAllThumbnails(File original) {
+        for (int[] size : THUMB_SIZES) {
+            if (!thumbFile(original, size[0], size[1]).isFile()) return false;
+        }
+        return true;
+    }
+
+    private static File thumbFile(File original, int w, int h) {
+        String name = original.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        return new File(original.getParentFile(), base + "_" + w + "x" + h + ".png");
+    }
+
+    // Fit inside w x h keeping aspect ratio; halve in steps for big reductions (better quality)
+    private static BufferedImage scaleToFit(BufferedImage src, int w, int h) {
+        double scale = Math.min(1.0, Math.min((double) w / src.getWidth(), (double) h / src.getHeight()));
+        int tw = Math.max(1, (int) Math.round(src.getWidth() * scale));
+        int th = Math.max(1, (int) Math.round(src.getHeight() * scale));
+
+        BufferedImage cur = src;
+        int cw = src.getWidth(), ch = src.getHeight();
+        do {
+            cw = Math.max(tw, cw / 2);
+            ch = Math.max(th, ch / 2);
+            BufferedImage next = new BufferedImage(cw, ch, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(cur, 0, 0, cw, ch, null);
+            g.dispose();
+            cur = next;
+        } while (cw != tw || ch != th);
+        return cur;
+    }
+
+    /* =======================
+       Garbage collection
+       ======================= */
+
+    /** Run {@link #collectGarbage()} on a background thread (no-op if a pass is running). */
+    public static void collectGarbageAsync() {
+        if (!GC_RUNNING.compareAndSet(false, true)) return;
+        Thread t = new Thread(() -> {
+            try {
+                int removed = collectGarbage();
+                if (removed > 0) FileLogger.at(Level.INFO).op("imageGc").field("removed", removed)
+                            .log("Image GC removed orphaned images");
+            } finally {
+                GC_RUNNING.set(false);
+            }
+        }, "ImageStorage-GC");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /**
+     * Delete sharded images (and their thumbnails) no longer referenced by any
+     * medicine or user. Legacy flat files are left alone. Returns how many
+     * originals were removed; does nothing if the references can't be read.
+     */
+    public static int collectGarbage() {
+        Set<Path> referenced;
+        try {
+            referenced = referencedPaths();
+        } catch (SQLException e) {
+            FileLogger.at(Level.WARN).op("imageGc").log("Image GC skipped, could not read references", e);
+            return 0;
+        }
+
+        long cutoff = System.currentTimeMillis() - GC_GRACE_MS;
+        List<File> orphans = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(imagesDir().toPath(), 3)) {
+            files.filter(p -> p.getNameCount() >= 2 && Files.isRegularFile(p))
+                 .filter(p -> HASH_NAME.matcher(p.getFileName().toString()).matches() && isSharded(p))
+                 .map(Path::toFile)
+                 .filter(f -> f.lastModified() <= cutoff && !referenced.contains(normalize(f.getPath())))
+                 .forEach(orphans::add);
+        } catch (IOException | UncheckedIOException e) {
+            FileLogger.at(Level.WARN).op("imageGc").log("Image GC skipped, could not scan store", e);
+            return 0;
+        }
+
+        int removed = 0;
+        for (File f : orphans) {
+            try {
+                for (int[] size : THUMB_SIZES) {
+                    Files.deleteIfExists(thumbFile(f, size[0], size[1]).toPath());
+                }
+                if (Files.deleteIfExists(f.toPath())) removed++;
+            } catch (IOException e) {
+                FileLogger.at(Level.WARN).op("imageGc").field("file", f.getName())
+                        .log("Image GC could not delete file", e);
+            }
+        }
+        return removed;
+    }
+
+    /** Every image path currently referenced by medicines.image_path or users.avatar_path. */
+    public static Set<Path> referencedPaths() throws SQLException {
+        Set<Path> refs = new HashSet<>();
+        final String sql = """
+                SELECT image_path FROM medicines WHERE image_path IS NOT NULL AND image_path <> ''
+                UNION
+                SELECT avatar_path FROM users WHERE avatar_path IS NOT NULL AND avatar_path <> ''
+                """;
+        try (Connection conn = DBHelper.getReadConnection();
+             PreparedStatement ps = DBHelper.prepareCached(conn, sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Path p = normalize(rs.getString(1));
+                if (p != null) refs.add(p);
+            }
+        }
+        return refs;
+    }
+
+    // images/ab/cd/abcd... : the two parent folders must be the hash prefix
+    private static boolean isSharded(Path p) {
+        String name = p.getFileName().toString();
+        Path cd = p.getParent(), ab = cd == null ? null : cd.getParent();
+        return ab != null
+                && cd.getFileName().toString().equals(name.substring(2, 4))
+                && ab.getFileName().toString().equals(name.substring(0, 2));
+    }
+
+    private static Path normalize(String path) {
+        if (path == null || path.isBlank()) return null;
+        return Path.of(path.trim()).toAbsolutePath().normalize();
     }
 
     private static String extOf(String name) {
         int i = name.lastIndexOf('.');
         if (i < 0) return null;
-        return name.substring(i + 1).toLowerCase(Locale.ROOT);
+        String ext = name.substring(i + 1).toLowerCase(Locale.ROOT);
+        return ext.equals("jpeg") ? "jpg" : ext;
     }
 }
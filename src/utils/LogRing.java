@@ -0,0 +1,73 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring for many producers and ONE consumer.
+ *
+ * Each slot carries a sequence number: a producer claims a position with a
+ * CAS on tail and publishes the element by advancing the slot's sequence,
+ * so no producer ever waits on a lock (only, briefly, on a lost CAS).
+ */
+final class LogRing<T> {
+
+    private final Object[] slots;
+    private final AtomicLongArray seq;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head; // written by the consumer only
+
+    LogRing(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // next power of two
+        slots = new Object[cap];
+        seq = new AtomicLongArray(cap);
+        for (int i = 0; i < cap; i++) seq.set(i, i);
+        mask = cap - 1;
+    }
+
+    int capacity() { return slots.length; }
+
+    /** @return false if the ring is full */
+    boolean offer(T item) {
+        long pos = tail.get();
+        for (;;) {
+            int idx = (int) (pos & mask);
+            long diff = seq.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[idx] = item;
+                    seq.set(idx, pos + 1); // publish
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;            // consumer hasn't freed this slot yet
+            } else {
+                pos = tail.get();        // another producer took it
+            }
+        }
+    }
+
+    /** Consumer only. @return next element or null if empty */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        int idx = (int) (head & mask);
+        if (seq.get(idx) != head + 1) return null;
+        T item = (T) slots[idx];
+        slots[idx] = null;
+        seq.set(idx, head + slots.length); // free for the producer one lap ahead
+        head++;
+        return item;
+    }
+
+    /** Approximate number of queued elements (exact when called by the consumer). */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    /** Consumer only. */
+    boolean isEmpty() {
+        return seq.get((int) (head & mask)) != head + 1;
+    }
+}
@@ -0,0 +1,168 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rolling policy for FileLogger's app.log.
+ *
+ * The writer thread asks {@link #shouldRoll} before each write and, if so,
+ * calls {@link #roll}, which is just a rename. Compression (gzip) and the
+ * retention cap run on a separate low-priority thread so writers never wait
+ * on them. Rolled segments are named app-yyyy-MM-dd.N.log[.gz] after the day
+ * they started.
+ *
+ * Config: log.rotate.mb (0 = no size limit), log.rotate.daily,
+ * log.retention.files, log.compress.
+ */
+final class LogRotator {
+
+    private static final Pattern ROLLED = Pattern.compile("app-(\\d{4}-\\d{2}-\\d{2})\\.(\\d+)\\.log(\\.gz)?");
+
+    private final Path dir;
+    private final long maxBytes;
+    private final boolean daily;
+    private final int retention;
+    private final boolean compress;
+
+    private LocalDate segmentDay;
+    private long nextMidnightMs;
+
+    private final ExecutorService archiver = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "FileLogger-Archiver");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    LogRotator(Path dir) {
+        this.dir = dir;
+        this.maxBytes = (long) (Double.parseDouble(ConfigManager.get("log.rotate.mb", "10")) * 1024 * 1024);
+        this.daily = Boolean.parseBoolean(ConfigManager.get("log.rotate.daily", "true"));
+        this.retention = Integer.parseInt(ConfigManager.get("log.retention.files", "14"));
+        this.compress = Boolean.parseBoolean(ConfigManager.get("log.compress", "true"));
+    }
+
+    /** Writer thread: note which day the (possibly existing) active file belongs to. */
+    void opened(Path active, long size) {
+        LocalDate day = LocalDate.now();
+        if (size > 0) {
+            try {
+                day = LocalDate.ofInstant(Files.getLastModifiedTime(active).toInstant(), ZoneId.systemDefault());
+            } catch (IOException ignored) {}
+        }
+        startSegment(day);
+    }
+
+    /** Writer thread: would writing {@code incoming} more bytes cross a size or day boundary? */
+    boolean shouldRoll(long currentSize, long incoming) {
+        if (currentSize == 0) return false;
+        if (daily && System.currentTimeMillis() >= nextMidnightMs) return true;
+        return maxBytes > 0 && currentSize + incoming > maxBytes;
+    }
+
+    /**
+     * Writer thread, with the active file closed: rename it out of the way and
+     * queue it for compression. Only a rename happens here.
+     */
+    void roll(Path active) {
+        try {
+            Path rolled = dir.resolve("app-" + segmentDay + "." + nextIndex(segmentDay) + ".log");
+            Files.move(active, rolled, StandardCopyOption.ATOMIC_MOVE);
+            archiver.execute(() -> archive(rolled));
+        } catch (IOException e) {
+            System.err.println("Log rotation failed: " + e.getMessage()); // keep appending to app.log
+        }
+        startSegment(LocalDate.now());
+    }
+
+    /** Compress rolled segments left behind by an earlier run, then apply retention. */
+    void sweepAsync() {
+        archiver.execute(() -> {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "app-*.gz.tmp")) {
+                for (Path p : ds) Files.deleteIfExists(p); // interrupted compression
+            } catch (IOException ignored) {}
+            for (Path p : rolledFiles()) {
+                if (!p.toString().endsWith(".gz")) archive(p);
+            }
+            enforceRetention();
+        });
+    }
+
+    private void startSegment(LocalDate day) {
+        segmentDay = day;
+        nextMidnightMs = day.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private int nextIndex(LocalDate day) {
+        int max = 0;
+        for (Path p : rolledFiles()) {
+            Matcher m = ROLLED.matcher(p.getFileName().toString());
+            if (m.matches() && m.group(1).equals(day.toString())) max = Math.max(max, Integer.parseInt(m.group(2)));
+        }
+        return max + 1;
+    }
+
+    /* =======================
+       Archiver thread
+       ======================= */
+
+    private void archive(Path rolled) {
+        if (compress) {
+            Path gz = rolled.resolveSibling(rolled.getFileName() + ".gz");
+            Path tmp = rolled.resolveSibling(rolled.getFileName() + ".gz.tmp");
+            try (InputStream in = Files.newInputStream(rolled);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024)) {
+                in.transferTo(out);
+            } catch (IOException e) {
+                System.err.println("Log compression failed for " + rolled.getFileName() + ": " + e.getMessage());
+                try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+                return;
+            }
+            try {
+                Files.move(tmp, gz, StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(rolled);
+            } catch (IOException e) {
+                System.err.println("Log compression failed for " + rolled.getFileName() + ": " + e.getMessage());
+            }
+        }
+        enforceRetention();
+    }
+
+    private void enforceRetention() {
+        if (retention <= 0) return;
+        List<Path> rolled = rolledFiles();
+        rolled.sort(Comparator.comparing(LogRotator::sortKey).reversed()); // newest first
+        for (int i = retention; i < rolled.size(); i++) {
+            try { Files.deleteIfExists(rolled.get(i)); } catch (IOException ignored) {}
+        }
+    }
+
+    // yyyy-MM-dd sorts as text; pad the index so 10 sorts after 9
+    private static String sortKey(Path p) {
+        Matcher m = ROLLED.matcher(p.getFileName().toString());
+        return m.matches() ? m.group(1) + String.format("%06d", Integer.parseInt(m.group(2))) : "";
+    }
+
+    private List<Path> rolledFiles() {
+        List<Path> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "app-*.log*")) {
+            for (Path p : ds) {
+                if (ROLLED.matcher(p.getFileName().toString()).matches()) out.add(p);
+            }
+        } catch (IOException ignored) {}
+        return out;
+    }
+}
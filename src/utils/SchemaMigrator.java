@@ -0,0 +1,313 @@
+package utils;
+
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Ordered, versioned schema migrations for medimart.db.
+ *
+ * The applied version lives in {@code PRAGMA user_version}. At start-up the
+ * writer compares that one integer with the latest version here and returns
+ * straight away when they match; otherwise each pending migration runs once,
+ * in its own BEGIN IMMEDIATE transaction that also bumps user_version, so a
+ * failure leaves the schema at the last good version.
+ *
+ * Migrations are append-only: never edit or renumber a shipped one, add a new
+ * version instead. Versions 1-5 are written to be harmless on databases created
+ * by builds that predate this class (user_version 0 but tables present).
+ */
+final class SchemaMigrator {
+
+    /** One schema step; runs inside the migration's transaction. */
+    interface Step {
+        void apply(Connection c) throws SQLException;
+    }
+
+    record Migration(int version, String description, Step step) {}
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "baseline tables", SchemaMigrator::baselineTables),
+            new Migration(2, "legacy columns on order_items and medicines", SchemaMigrator::legacyColumns),
+            new Migration(3, "medicine tombstones for delta refresh", SchemaMigrator::tombstones),
+            new Migration(4, "indexes", SchemaMigrator::indexes),
+            new Migration(5, "medicines_fts search index", SchemaMigrator::searchIndex),
+            new Migration(6, "order headers: order_items.header_id -> orders.id", SchemaMigrator::orderHeaders),
+            new Migration(7, "stock reservations", SchemaMigrator::stockReservations)
+    );
+
+    static final int LATEST = MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+
+    private SchemaMigrator() {}
+
+    /**
+     * Bring the schema up to {@link #LATEST}. Call on the writer connection
+     * (auto-commit on) before any reader is opened.
+     */
+    static void migrate(Connection c) throws SQLException {
+        int current = userVersion(c);
+        if (current == LATEST) return; // fast path: one PRAGMA read
+        if (current > LATEST) {
+            System.err.println("Database schema v" + current + " is newer than this build (v" + LATEST + ")");
+            return;
+        }
+
+        for (Migration m : MIGRATIONS) {
+            if (m.version() <= current) continue;
+            try (Statement st = c.createStatement()) {
+                // IMMEDIATE takes the write lock up front; re-check in case another process got here first
+                st.execute("BEGIN IMMEDIATE");
+                try {
+                    if (userVersion(c) >= m.version()) {
+                        st.execute("COMMIT");
+                        continue;
+                    }
+                    m.step().apply(c);
+                    st.execute("PRAGMA user_version = " + m.version());
+                    st.execute("COMMIT");
+                } catch (SQLException | RuntimeException e) {
+                    try { st.execute("ROLLBACK"); } catch (SQLException ignored) {}
+                    throw new SQLException("Migration v" + m.version() + " (" + m.description() + ") failed: "
+                            + e.getMessage(), e);
+                }
+            }
+            System.out.println("Migrated schema to v" + m.version() + ": " + m.description());
+        }
+    }
+
+    private static int userVersion(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /* =======================
+       v1: baseline tables
+       ======================= */
+
+    private static void baselineTables(Connection c) throws SQLException {
+        try (Statement stmt = c.createStatement()) {
+
+            // users table
+            stmt.execute("""
+            CREATE TABLE IF NOT EXISTS users (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                firstName   TEXT NOT NULL,
+                lastName    TEXT NOT NULL,
+                phone       TEXT NOT NULL,
+                email       TEXT UNIQUE NOT NULL,
+                password    TEXT NOT NULL,
+                address     TEXT,
+                avatar_path TEXT,
+                updated_at  INTEGER
+            )
+            """);
+
+            // medicines table
+            stmt.execute("""
+            CREATE TABLE IF NOT EXISTS medicines (
+                serial_number INTEGER PRIMARY KEY AUTOINCREMENT,
+                name          TEXT NOT NULL,
+                category      TEXT NOT NULL,
+                price         REAL NOT NULL,
+                quantity      INTEGER NOT NULL,
+                expiry        TEXT NOT NULL,
+                image_path    TEXT,
+                last_updated  INTEGER
+            )
+            """);
+
+            // order_items table (links medicines and users in orders)
+            stmt.execute("""
+            CREATE TABLE IF NOT EXISTS order_items (
+                order_id    INTEGER PRIMARY KEY AUTOINCREMENT,
+                user_id     INTEGER NOT NULL,
+                medicine_id INTEGER NOT NULL,
+                quantity    INTEGER NOT NULL,
+                total_price REAL NOT NULL,
+                order_date  TEXT NOT NULL,
+                FOREIGN KEY (medicine_id) REFERENCES medicines(serial_number) ON DELETE CASCADE,
+                FOREIGN KEY (user_id) REFERENCES users(id)
+            )
+            """);
+
+            // orders table (to track orders independently)
+            stmt.execute("""
+            CREATE TABLE IF NOT EXISTS orders (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                user_id INTEGER NOT NULL,
+                total_price REAL NOT NULL,
+                order_date TEXT NOT NULL,
+                FOREIGN KEY (user_id) REFERENCES users(id)
+            )
+            """);
+        }
+    }
+
+    /* =======================
+       v2: columns missing from very old databases
+       ======================= */
+
+    private static void legacyColumns(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            if (!columnExists(c, "order_items", "user_id")) {
+                st.execute("ALTER TABLE order_items ADD COLUMN user_id INTEGER");
+            }
+            if (!columnExists(c, "order_items", "total_price")) {
+                st.execute("ALTER TABLE order_items ADD COLUMN total_price REAL");
+            }
+            if (!columnExists(c, "order_items", "order_date")) {
+                st.execute("ALTER TABLE order_items ADD COLUMN order_date TEXT");
+            }
+            if (!columnExists(c, "medicines", "image_path")) {
+                st.execute("ALTER TABLE medicines ADD COLUMN image_path TEXT");
+            }
+            if (!columnExists(c, "medicines", "last_updated")) {
+                st.execute("ALTER TABLE medicines ADD COLUMN last_updated INTEGER");
+            }
+            st.execute("""
+                UPDATE medicines
+                SET last_updated = CAST(strftime('%s','now') AS INTEGER)
+                WHERE last_updated IS NULL
+            """);
+        }
+    }
+
+    /* =======================
+       v3: tombstones (hard deletes, so delta refreshes can see removals)
+       ======================= */
+
+    private static void tombstones(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("""
+            CREATE TABLE IF NOT EXISTS medicine_tombstones (
+                serial_number INTEGER PRIMARY KEY,
+                deleted_at    INTEGER NOT NULL
+            )
+            """);
+            st.execute("""
+            CREATE TRIGGER IF NOT EXISTS trg_meds_tombstone
+            AFTER DELETE ON medicines
+            BEGIN
+                INSERT OR REPLACE INTO medicine_tombstones(serial_number, deleted_at)
+                VALUES (OLD.serial_number, CAST(strftime('%s','now') AS INTEGER));
+            END
+            """);
+        }
+    }
+
+    /* =======================
+       v4: indexes
+       ======================= */
+
+    private static void indexes(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("CREATE INDEX IF NOT EXISTS idx_users_email ON users(email)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_users_phone ON users(phone)");
+
+            st.execute("CREATE INDEX IF NOT EXISTS idx_meds_name ON medicines(name)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_meds_category ON medicines(category)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_meds_price ON medicines(price)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_meds_cat_price ON medicines(category, price, serial_number)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_meds_lastupd ON medicines(last_updated)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_tombstones_at ON medicine_tombstones(deleted_at)");
+
+            st.execute("CREATE INDEX IF NOT EXISTS idx_order_items_user ON order_items(user_id)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_order_items_med ON order_items(medicine_id)");
+        }
+    }
+
+    /* =======================
+       v5: FTS5 index over medicines(name, category), kept in sync by triggers
+       ======================= */
+
+    // External-content table: only the index lives here, rows stay in medicines
+    private static void searchIndex(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("""
+                CREATE VIRTUAL TABLE IF NOT EXISTS medicines_fts USING fts5(
+                    name, category,
+                    content='medicines', content_rowid='serial_number',
+                    tokenize='unicode61 remove_diacritics 2', prefix='2 3'
+                )
+            """);
+            st.execute("""
+                CREATE TRIGGER IF NOT EXISTS trg_meds_fts_ai AFTER INSERT ON medicines BEGIN
+                    INSERT INTO medicines_fts(rowid, name, category)
+                    VALUES (new.serial_number, new.name, new.category);
+                END
+            """);
+            st.execute("""
+                CREATE TRIGGER IF NOT EXISTS trg_meds_fts_ad AFTER DELETE ON medicines BEGIN
+                    INSERT INTO medicines_fts(medicines_fts, rowid, name, category)
+                    VALUES ('delete', old.serial_number, old.name, old.category);
+                END
+            """);
+            st.execute("""
+                CREATE TRIGGER IF NOT EXISTS trg_meds_fts_au AFTER UPDATE OF name, category ON medicines BEGIN
+                    INSERT INTO medicines_fts(medicines_fts, rowid, name, category)
+                    VALUES ('delete', old.serial_number, old.name, old.category);
+                    INSERT INTO medicines_fts(rowid, name, category)
+                    VALUES (new.serial_number, new.name, new.category);
+                END
+            """);
+            // Index whatever rows already exist (no-op cost on an empty table)
+            st.execute("INSERT INTO medicines_fts(medicines_fts) VALUES('rebuild')");
+        }
+    }
+
+    /* =======================
+       v6: one orders row per checkout, its lines point at it
+       ======================= */
+
+    private static void orderHeaders(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            // Old Bill code expected orders(userId, total, orderDate); keep such a table aside
+            if (!columnExists(c, "orders", "user_id")) {
+                st.execute("ALTER TABLE orders RENAME TO orders_legacy");
+                baselineTables(c);
+            }
+            if (!columnExists(c, "order_items", "header_id")) {
+                st.execute("ALTER TABLE order_items ADD COLUMN header_id INTEGER REFERENCES orders(id)");
+            }
+            st.execute("CREATE INDEX IF NOT EXISTS idx_order_items_header ON order_items(header_id)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_orders_user ON orders(user_id, order_date)");
+        }
+    }
+
+    /* =======================
+       v7: short-lived stock holds taken when items go into a cart
+       ======================= */
+
+    // Times are epoch millis; a row past expires_at no longer holds stock, even if not deleted yet
+    private static void stockReservations(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("""
+            CREATE TABLE IF NOT EXISTS stock_reservations (
+                id          INTEGER PRIMARY KEY AUTOINCREMENT,
+                medicine_id INTEGER NOT NULL,
+                user_id     INTEGER,
+                quantity    INTEGER NOT NULL CHECK (quantity > 0),
+                created_at  INTEGER NOT NULL,
+                expires_at  INTEGER NOT NULL,
+                FOREIGN KEY (medicine_id) REFERENCES medicines(serial_number) ON DELETE CASCADE
+            )
+            """);
+            st.execute("CREATE INDEX IF NOT EXISTS idx_reservations_med ON stock_reservations(medicine_id, expires_at)");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_reservations_exp ON stock_reservations(expires_at)");
+        }
+    }
+
+    /**
+     * Check if a column exists in the given table.
+     */
+    private static boolean columnExists(Connection c, String table, String column) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,129 @@
+package utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of prepared statements for ONE physical connection, keyed by SQL text.
+ * Handed-out statements are wrappers: close() only clears parameters/result set
+ * and marks the statement free for the next caller.
+ */
+final class StatementCache {
+
+    static final AtomicLong HITS = new AtomicLong();
+    static final AtomicLong MISSES = new AtomicLong();
+
+    private final Connection physical;
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(Connection physical, int capacity) {
+        this.physical = physical;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        Entry e = lru.get(sql);
+        if (e != null && !e.inUse) {
+            HITS.incrementAndGet();
+            e.inUse = true;
+            return e.proxy;
+        }
+        MISSES.incrementAndGet();
+        if (e != null) {
+            // Same SQL already in use further up this thread's stack: give a plain one
+            return physical.prepareStatement(sql);
+        }
+        e = new Entry(physical.prepareStatement(sql));
+        e.inUse = true;
+        lru.put(sql, e);
+        evictIfNeeded();
+        return e.proxy;
+    }
+
+    synchronized int size() { return lru.size(); }
+
+    synchronized void closeAll() {
+        for (Entry e : lru.values()) e.closePhysical();
+        lru.clear();
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Entry>> it = lru.entrySet().iterator();
+        while (lru.size() > capacity && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            if (eldest.inUse) eldest.evicted = true;   // closed when its caller releases it
+            else eldest.closePhysical();
+        }
+    }
+
+    private synchronized void release(Entry e) {
+        if (e.openResult != null) {
+            try { e.openResult.close(); } catch (SQLException ignored) {}
+            e.openResult = null;
+        }
+        try {
+            e.stmt.clearParameters();
+            e.stmt.clearBatch();
+        } catch (SQLException ex) {
+            e.evicted = true;
+            lru.values().remove(e);
+        }
+        e.inUse = false;
+        if (e.evicted) e.closePhysical();
+    }
+
+    private final class Entry implements InvocationHandler {
+        final PreparedStatement stmt;
+        final PreparedStatement proxy;
+        boolean inUse;
+        boolean evicted;
+        ResultSet openResult;
+
+        Entry(PreparedStatement stmt) {
+            this.stmt = stmt;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (inUse) release(this);
+                    return null;
+                case "isClosed":
+                    return !inUse || stmt.isClosed();
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                default:
+                    if (!inUse) throw new SQLException("Statement already closed");
+            }
+            try {
+                Object result = method.invoke(stmt, args);
+                if (result instanceof ResultSet rs) openResult = rs;
+                return result;
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+
+        void closePhysical() {
+            try { stmt.close(); } catch (SQLException ignored) {}
+        }
+    }
+}